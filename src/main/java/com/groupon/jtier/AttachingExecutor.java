@@ -22,7 +22,7 @@ class AttachingExecutor extends AbstractExecutorService {
 
     private final ExecutorService target;
 
-    private AttachingExecutor(final ExecutorService target) {
+    AttachingExecutor(final ExecutorService target) {
         this.target = target;
     }
 
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AttachingExecutor} for a scheduler: delayed and periodic tasks run with the context which was
+ * attached when they were scheduled. A periodic task keeps that context for every run.
+ */
+class AttachingScheduledExecutor extends AttachingExecutor implements ScheduledExecutorService {
+
+    private final ScheduledExecutorService target;
+
+    private AttachingScheduledExecutor(final ScheduledExecutorService target) {
+        super(target);
+        this.target = target;
+    }
+
+    static ScheduledExecutorService infect(final ScheduledExecutorService target) {
+        return new AttachingScheduledExecutor(target);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+        return this.target.schedule(attached(command), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit) {
+        final Ctx ctx = Ctx.currentOrNull();
+        return this.target.schedule(ctx == null ? callable : ctx.propagate(callable), delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command, final long initialDelay, final long period, final TimeUnit unit) {
+        return this.target.scheduleAtFixedRate(attached(command), initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command, final long initialDelay, final long delay, final TimeUnit unit) {
+        return this.target.scheduleWithFixedDelay(attached(command), initialDelay, delay, unit);
+    }
+
+    private static Runnable attached(final Runnable command) {
+        final Ctx ctx = Ctx.currentOrNull();
+        return ctx == null ? command : ctx.propagate(command);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Why a {@link Ctx} was cancelled, see {@link Ctx#getCancellationCause()}.
+ * <p>
+ * Children are cancelled with the cause of their parent, so a timeout on a request's context is
+ * reported as {@link #TIMEOUT} by everything derived from it. Causes are compared by identity:
+ * create application specific ones once, with {@link #of(String)}, and keep them in constants.
+ */
+public final class CancellationCause {
+
+    /**
+     * Cancelled by a call to {@link Ctx#cancel()}.
+     */
+    public static final CancellationCause CANCELLED = new CancellationCause("cancelled", null);
+
+    /**
+     * Cancelled because a timeout set with {@link Ctx#withTimeout(long, java.util.concurrent.TimeUnit)}
+     * or one of its variants expired.
+     */
+    public static final CancellationCause TIMEOUT = new CancellationCause("timeout", null);
+
+    private final String reason;
+    private final Throwable error;
+    private final CtxCancelledException exception;
+
+    private CancellationCause(final String reason, final Throwable error) {
+        this.reason = Objects.requireNonNull(reason, "reason");
+        this.error = error;
+        this.exception = new CtxCancelledException(this);
+    }
+
+    public static CancellationCause of(final String reason) {
+        return new CancellationCause(reason, null);
+    }
+
+    /**
+     * A cause for a cancellation triggered by a failure, for instance of a sibling operation.
+     */
+    public static CancellationCause of(final String reason, final Throwable error) {
+        return new CancellationCause(reason, Objects.requireNonNull(error, "error"));
+    }
+
+    public String getReason() {
+        return this.reason;
+    }
+
+    public Optional<Throwable> getError() {
+        return Optional.ofNullable(this.error);
+    }
+
+    /**
+     * Return the exception for this cause. It is created along with the cause, has no stack trace and
+     * is shared by every thrower, so it is cheap to throw at any rate.
+     */
+    public CtxCancelledException toException() {
+        return this.exception;
+    }
+
+    @Override
+    public String toString() {
+        return this.error == null ? this.reason : this.reason + ": " + this.error;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decides where the {@link Ctx#onCancel(Runnable)} listeners of a cancelled context run. Set with
+ * {@link Ctx#withCancellationDispatch(CancellationDispatch)}, and inherited by children.
+ * <p>
+ * Cancellation of child contexts always happens inline, so a whole subtree is cancelled by the time
+ * {@link Ctx#cancel()} returns, whichever dispatch the listeners use. Each listener is isolated: an
+ * exception it throws is passed to the uncaught exception handler of the thread running it, and the
+ * remaining listeners still run.
+ */
+@FunctionalInterface
+public interface CancellationDispatch {
+
+    /**
+     * Run the listeners of one cancelled context, in order.
+     */
+    void dispatch(List<? extends Runnable> listeners);
+
+    /**
+     * Run listeners on the thread which cancels the context: the caller of {@link Ctx#cancel()}, or
+     * the timer thread when a timeout expires. This is the default.
+     */
+    static CancellationDispatch inline() {
+        return Dispatchers.INLINE;
+    }
+
+    /**
+     * Submit each listener to the executor as a task of its own. Listeners the executor rejects run inline.
+     */
+    static CancellationDispatch executor(final Executor executor) {
+        Objects.requireNonNull(executor, "executor");
+        return (listeners) -> {
+            for (Runnable listener : listeners) {
+                try {
+                    executor.execute(listener);
+                }
+                catch (RejectedExecutionException e) {
+                    listener.run();
+                }
+            }
+        };
+    }
+
+    /**
+     * Queue listeners and run them on the executor in as few tasks as possible: a single task drains
+     * everything queued by the time it runs, for instance the listeners of a whole subtree cancelled
+     * by one timeout. If the executor rejects the task, the queue is drained inline.
+     */
+    static CancellationDispatch batched(final Executor executor) {
+        return new Dispatchers.Batched(Objects.requireNonNull(executor, "executor"));
+    }
+}
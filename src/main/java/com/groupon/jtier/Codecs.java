@@ -0,0 +1,29 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.function.Function;
+
+/**
+ * Built in {@link KeyCodec}s.
+ */
+final class Codecs {
+    static final KeyCodec<String> STRING = KeyCodec.of(Function.identity(), Function.identity());
+    static final KeyCodec<Long> LONG = KeyCodec.of(String::valueOf, Long::valueOf);
+    static final KeyCodec<Integer> INT = KeyCodec.of(String::valueOf, Integer::valueOf);
+    static final KeyCodec<Boolean> BOOLEAN = KeyCodec.of(String::valueOf, Boolean::valueOf);
+
+    private Codecs() {
+    }
+}
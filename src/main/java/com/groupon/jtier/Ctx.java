@@ -13,19 +13,37 @@
  */
 package com.groupon.jtier;
 
-import java.lang.reflect.Proxy;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Ctx provides a means of tunneling context around between libraries, and occasionally, within
@@ -41,33 +59,50 @@ import java.util.concurrent.TimeUnit;
 public class Ctx implements AutoCloseable {
 
     /**
-     * Default executor for timeouts.
+     * Default scheduler for timeouts.
      */
-    private static final ScheduledExecutorService TIMEOUT_POOL = Executors.newScheduledThreadPool(1, r -> {
-        Thread t = new Thread(r);
+    private static final TimerWheel TIMER = new TimerWheel(10, TimeUnit.MILLISECONDS, 512, r -> {
+        Thread t = new Thread(r, "ctx-timer");
         t.setDaemon(true);
         return t;
     });
 
-    private static final ThreadLocal<Optional<Ctx>> ATTACHED = ThreadLocal.withInitial(Optional::empty);
+    /**
+     * Where attached contexts live, selected at startup with the {@code jtier.ctx.storage} system property.
+     */
+    private static final CtxStorage STORAGE = selectStorage(System.getProperty("jtier.ctx.storage"));
 
     private final Life life;
-    private final Map<Key<?>, Object> values;
+    private final ValueMap values;
 
     private final List<Runnable> attachListeners = new CopyOnWriteArrayList<>();
     private final List<Runnable> detachListeners = new CopyOnWriteArrayList<>();
 
-    private Ctx(final Life life, final Map<Key<?>, Object> values) {
+    /**
+     * The propagated values as last encoded by a {@link CtxCodec}, kept so that a context sent on many
+     * outgoing calls is only encoded once.
+     */
+    volatile CtxCodec.Encoded encoded;
+
+    private Ctx(final Life life, final ValueMap values) {
         this.life = life;
         this.values = values;
     }
 
     public static Ctx empty() {
-        return new Ctx(new Life(Optional.empty()), Collections.emptyMap());
+        return new Ctx(new Life(Optional.empty()), ValueMap.EMPTY);
     }
 
     public static Optional<Ctx> fromThread() {
-        return ATTACHED.get();
+        return Optional.ofNullable(attached());
+    }
+
+    /**
+     * Like {@link #fromThread()}, but returns null rather than allocating an {@link Optional} when no
+     * context is attached to the current thread.
+     */
+    public static Ctx currentOrNull() {
+        return attached();
     }
 
     /**
@@ -75,52 +110,216 @@ public class Ctx implements AutoCloseable {
      * It is preferred to use {@link Ctx#close()}.
      */
     public static void cleanThread() {
-        ATTACHED.get().ifPresent(Ctx::close);
+        final Ctx attached = attached();
+        if (attached != null) {
+            attached.detach();
+        }
+    }
+
+    /**
+     * The context attached to the calling thread: the one of an enclosing scoped {@link #runAttached(Runnable)}
+     * block when the scoped attachment backend is in use, otherwise the one in {@link #STORAGE}.
+     */
+    private static Ctx attached() {
+        final Attachment scoped = ScopedAttachment.current();
+        return scoped != null ? scoped.ctx : STORAGE.get();
+    }
+
+    private static void setAttached(final Ctx ctx) {
+        final Attachment scoped = ScopedAttachment.current();
+        if (scoped != null) {
+            scoped.ctx = ctx;
+        }
+        else {
+            STORAGE.set(ctx);
+        }
     }
 
+    /**
+     * Resolves the {@code jtier.ctx.storage} system property: {@code threadlocal} (the default) or
+     * {@code scoped} for {@link ThreadLocalCtxStorage}, {@code indexed} for {@link IndexedCtxStorage}, or
+     * the name of a {@link CtxStorage} implementation with a public no argument constructor.
+     *
+     * @throws IllegalStateException if {@code scoped} is asked for where scoped attachment is not available.
+     */
+    private static CtxStorage selectStorage(final String name) {
+        if ("scoped".equals(name)) {
+            if (!ScopedAttachment.ENABLED) {
+                throw new IllegalStateException("jtier.ctx.storage=scoped needs JDK 25 and a jar built with the jdk25 profile");
+            }
+            // scoped blocks bind a holder of their own, everything else uses the thread local
+            return new ThreadLocalCtxStorage();
+        }
+        if (name == null || "threadlocal".equals(name)) {
+            return new ThreadLocalCtxStorage();
+        }
+        if ("indexed".equals(name)) {
+            return new IndexedCtxStorage();
+        }
+        try {
+            return Class.forName(name).asSubclass(CtxStorage.class).getConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Unable to create CtxStorage " + name, e);
+        }
+    }
+
+    /**
+     * Returns the key for the given name and type. Keys are interned: every call with an equal name
+     * and type returns the same instance, which owns a unique slot in the value store of every Ctx.
+     * <p>
+     * The registry only holds keys weakly. A key which neither the caller nor any context references
+     * any more is forgotten, and its slot reused, so names taken from requests, such as those passed to
+     * {@link #with(Map, Class)}, do not accumulate.
+     */
     public static <T> Key<T> key(final String name, final Class<T> type) {
-        return new Key<>(type, name);
+        return Key.intern(type, name, false);
+    }
+
+    /**
+     * Returns the key for the given name and type, like {@link #key(String, Class)}, and marks it for
+     * propagation to other processes with the codec, see {@link CtxCodec}. The name is the one used on
+     * the wire, so only one key per name may be propagated, and a key keeps the first codec given to it.
+     *
+     * @throws IllegalStateException if the key already has a different codec, or a key of another type
+     *                               with this name is already propagated.
+     */
+    public static <T> Key<T> key(final String name, final Class<T> type, final KeyCodec<T> codec) {
+        final Key<T> key = Key.intern(type, name, true);
+        key.propagateWith(codec);
+        return key;
+    }
+
+    /**
+     * Key for a long value which can be read without boxing, see {@link #getLong(LongKey, long)}.
+     * It shares its slot with {@code key(name, Long.class)}. Values are still stored boxed, see
+     * {@link #with(LongKey, long)}.
+     */
+    public static LongKey longKey(final String name) {
+        return new LongKey(key(name, Long.class));
+    }
+
+    /**
+     * Key for an int value which can be read without boxing, see {@link #getInt(IntKey, int)}.
+     * It shares its slot with {@code key(name, Integer.class)}. Values are still stored boxed, see
+     * {@link #with(IntKey, int)}.
+     */
+    public static IntKey intKey(final String name) {
+        return new IntKey(key(name, Integer.class));
+    }
+
+    /**
+     * Key for a boolean value which can be read without boxing, see {@link #getBoolean(BooleanKey, boolean)}.
+     * It shares its slot with {@code key(name, Boolean.class)}.
+     */
+    public static BooleanKey booleanKey(final String name) {
+        return new BooleanKey(key(name, Boolean.class));
     }
 
     /**
      * @return
      */
     public Ctx attachToThread() {
-        final Optional<Ctx> previouslyAttached = ATTACHED.get();
-        if (previouslyAttached.isPresent()) {
-            if (previouslyAttached.get() == this) {
-                return this;
-            }
-            previouslyAttached.get().close();
+        final Ctx previouslyAttached = attached();
+        if (previouslyAttached == this) {
+            return this;
+        }
+        if (previouslyAttached != null) {
+            previouslyAttached.detach();
         }
 
-        ATTACHED.set(Optional.of(this));
+        setAttached(this);
         this.attachListeners.forEach(Runnable::run);
         return this;
     }
 
+    private void detach() {
+        setAttached(null);
+        this.detachListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Attaches this context to the current thread for the duration of a propagated task, for wrappers of
+     * callback types which {@link #propagate(Object)} does not know, such as those of a reactive library.
+     * Call {@link #exit(Ctx)} with the result in a finally block once the task is done:
+     * <pre>
+     * final Ctx previous = ctx.enter();
+     * try {
+     *     return f.apply(t);
+     * } finally {
+     *     ctx.exit(previous);
+     * }
+     * </pre>
+     * Nothing is allocated, and no listener fires if this context is already attached.
+     *
+     * @return the context which was attached before, to be handed to {@link #exit(Ctx)}.
+     */
+    public Ctx enter() {
+        final Ctx previous = attached();
+        if (previous != this) {
+            attachToThread();
+        }
+        return previous;
+    }
+
+    /**
+     * Restores the context which was attached before {@link #enter()}.
+     *
+     * @throws IllegalStateException if the task left another context attached in place of this one.
+     */
+    public void exit(final Ctx previous) {
+        if (previous == this) {
+            return;
+        }
+        close();
+        if (previous != null) {
+            // reattach previous ctx
+            previous.attachToThread();
+        }
+    }
+
+    /**
+     * Runs the runnable with this context attached, restoring whatever was attached before afterwards.
+     * <p>
+     * When the scoped attachment backend is selected ({@code -Djtier.ctx.storage=scoped}, JDK 25 or later),
+     * the context is bound with a {@code java.lang.ScopedValue} instead of the thread local, which costs
+     * virtual threads no thread local entry and is unbound when the block exits. Within the block,
+     * {@link #fromThread()}, {@link #attachToThread()} and {@link #close()} act on that binding. A context
+     * attached outside the block is detached and attached again around it, firing its listeners, as with
+     * the other backends. Otherwise, and on older JDKs, the context is attached through the selected
+     * {@link CtxStorage}.
+     */
     public void runAttached(final Runnable r) {
-        this.propagate(r).run();
+        ScopedAttachment.run(this, r);
     }
 
+    /**
+     * Calls the callable with this context attached, see {@link #runAttached(Runnable)}.
+     */
     public <T> T callAttached(final Callable<T> c) throws Exception {
-        return this.propagate(c).call();
+        return ScopedAttachment.call(this, c);
     }
 
     public <T> Ctx with(final Key<T> key, final T value) {
-        final Map<Key<?>, Object> next = new HashMap<>();
-        next.putAll(this.values);
-        next.put(key, value);
-        return new Ctx(this.life, next);
+        return new Ctx(this.life, this.values.with(key, value));
+    }
+
+    /**
+     * @return a builder for a context with the same lifecycle as this one, and its values plus those
+     * put into the builder. Use it rather than a chain of {@link #with(Key, Object)} calls to add several
+     * values at once: {@code ctx.toBuilder().put(a, 1).put(b, 2).build()}.
+     */
+    public Builder toBuilder() {
+        return new Builder(this.life, this.values);
     }
 
+    /**
+     * Add a value for each entry of the map, keyed by {@link #key(String, Class)} of its name and the
+     * value type. Values already in this context are kept, unless the map replaces them. The keys of
+     * names which are no longer in use are collected, see {@link #key(String, Class)}.
+     */
     public <T> Ctx with(final Map<String, T> values, final Class<T> valueType) {
-        final Map<Key<?>, Object> next = new HashMap<>();
-        for (Map.Entry<String, T> entry : values.entrySet()) {
-            Key<?> key = key(entry.getKey(), valueType);
-            next.put(key, entry.getValue());
-        }
-        return new Ctx(this.life, next);
+        return toBuilder().putAll(values, valueType).build();
     }
 
     public Ctx createChild() {
@@ -128,12 +327,66 @@ public class Ctx implements AutoCloseable {
     }
 
     public <T> Optional<T> get(final Key<T> key) {
-        if (this.values.containsKey(key)) {
-            return Optional.of(key.cast(this.values.get(key)));
-        }
-        else {
-            return Optional.empty();
-        }
+        return Optional.ofNullable(key.cast(this.values.get(key)));
+    }
+
+    /**
+     * Like {@link #get(Key)}, but returns null rather than allocating an {@link Optional} when the
+     * value is not present.
+     */
+    public <T> T getOrNull(final Key<T> key) {
+        return key.cast(this.values.get(key));
+    }
+
+    /**
+     * Like {@link #get(Key)}, but returns the given default rather than allocating an {@link Optional}
+     * when the value is not present.
+     */
+    public <T> T getOrDefault(final Key<T> key, final T defaultValue) {
+        final T value = key.cast(this.values.get(key));
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Add a long value. Only reads avoid allocation: the value store holds objects, so the value is
+     * boxed here, through the JDK's cache of small values where it applies.
+     */
+    public Ctx with(final LongKey key, final long value) {
+        return with(key.key, value);
+    }
+
+    /**
+     * Add an int value, boxed as for {@link #with(LongKey, long)}.
+     */
+    public Ctx with(final IntKey key, final int value) {
+        return with(key.key, value);
+    }
+
+    /**
+     * Add a boolean value. The two boolean boxes are shared, so this allocates no more than
+     * {@link #with(Key, Object)}.
+     */
+    public Ctx with(final BooleanKey key, final boolean value) {
+        return with(key.key, value);
+    }
+
+    ValueMap values() {
+        return this.values;
+    }
+
+    public long getLong(final LongKey key, final long defaultValue) {
+        final Object value = this.values.get(key.key);
+        return value == null ? defaultValue : (Long) value;
+    }
+
+    public int getInt(final IntKey key, final int defaultValue) {
+        final Object value = this.values.get(key.key);
+        return value == null ? defaultValue : (Integer) value;
+    }
+
+    public boolean getBoolean(final BooleanKey key, final boolean defaultValue) {
+        final Object value = this.values.get(key.key);
+        return value == null ? defaultValue : (Boolean) value;
     }
 
 
@@ -165,7 +418,8 @@ public class Ctx implements AutoCloseable {
     }
 
     /**
-     * Create a child Ctx will be cancelled when the timeout is reached. If a previous timeout was set this will replace it.
+     * Create a child Ctx which will be cancelled when the timeout is reached. A timeout inherited from this context
+     * still applies, so the child is cancelled at whichever deadline comes first.
      */
     public Ctx withTimeout(final long time, final TimeUnit unit, final ScheduledExecutorService scheduler) {
         Ctx child = this.createChild();
@@ -174,21 +428,32 @@ public class Ctx implements AutoCloseable {
     }
 
     /**
-     * Create a child Ctx will be cancelled when the timeout is reached. If a previous timeout was set this will replace it.
+     * Create a child Ctx which will be cancelled when the timeout is reached. A timeout inherited from this context
+     * still applies, so the child is cancelled at whichever deadline comes first.
      */
     public Ctx withTimeout(final long time, final TimeUnit unit) {
-        return withTimeout(time, unit, TIMEOUT_POOL);
+        Ctx child = this.createChild();
+        child.life.startTimeout(time, unit, TIMER);
+        return child;
     }
 
     /**
-     * Create a child Ctx will be cancelled when the timeout is reached. If a previous timeout was set this will replace it.
+     * Create a child Ctx which will be cancelled when the timeout is reached. A timeout inherited from this context
+     * still applies, so the child is cancelled at whichever deadline comes first.
      */
     public Ctx withTimeout(final Duration d) {
-        return withTimeout(d, TIMEOUT_POOL);
+        final long seconds = d.getSeconds();
+        if (d.getNano() == 0) {
+            return withTimeout(seconds, TimeUnit.SECONDS);
+        }
+        else {
+            return withTimeout(TimeUnit.SECONDS.toNanos(seconds) + d.getNano(), TimeUnit.NANOSECONDS);
+        }
     }
 
     /**
-     * Create a child Ctx will be cancelled when the timeout is reached. If a previous timeout was set this will replace it.
+     * Create a child Ctx which will be cancelled when the timeout is reached. A timeout inherited from this context
+     * still applies, so the child is cancelled at whichever deadline comes first.
      */
     public Ctx withTimeout(final Duration d, final ScheduledExecutorService scheduler) {
         if (d.getNano() == 0) {
@@ -199,6 +464,14 @@ public class Ctx implements AutoCloseable {
         }
     }
 
+    /**
+     * Create a child Ctx whose cancel listeners, and those of its descendants, are run by the given
+     * dispatch rather than on the cancelling thread.
+     */
+    public Ctx withCancellationDispatch(final CancellationDispatch dispatch) {
+        return new Ctx(new Life(Optional.of(this.life), dispatch), this.values);
+    }
+
     /**
      * Return the time remaining before the context is cancelled by a timeout, if one is set.
      * If there is no active timeout, the returned optional will be empty.
@@ -207,24 +480,29 @@ public class Ctx implements AutoCloseable {
         return this.life.timeRemaining();
     }
 
+    /**
+     * Return the nanoseconds remaining before the context is cancelled by a timeout, zero if the
+     * timeout has passed, or {@link Long#MAX_VALUE} if no timeout is set. Reads the monotonic clock
+     * and does not lock or allocate, so it is cheap enough to derive a timeout for every downstream call.
+     */
+    public long remainingNanos() {
+        return this.life.remainingNanos();
+    }
+
     /**
      * Detach this context from the current thread. If this Ctx is NOT attached to the current thread
      * it will raise an IllegalStateException.
      */
     @Override
     public void close() {
-        final Optional<Ctx> o = ATTACHED.get();
-        if (o.isPresent()) {
-            final Ctx attached = o.get();
-            if (attached != this) {
-                throw new IllegalStateException("Attempt to detach different context from current thread");
-            }
-            ATTACHED.set(Optional.empty());
-            this.detachListeners.forEach(Runnable::run);
-        }
-        else {
+        final Ctx attached = attached();
+        if (attached == null) {
             throw new IllegalStateException("Attempt to detach context from unattached thread");
         }
+        if (attached != this) {
+            throw new IllegalStateException("Attempt to detach different context from current thread");
+        }
+        detach();
     }
 
     /**
@@ -234,10 +512,36 @@ public class Ctx implements AutoCloseable {
         this.life.cancel();
     }
 
+    /**
+     * Cancel this context, recording why. Children are cancelled with the same cause. If the
+     * context is already cancelled this does nothing, and the original cause is kept.
+     */
+    public void cancel(final CancellationCause cause) {
+        this.life.cancel(cause);
+    }
+
     public boolean isCancelled() {
         return this.life.isCancelled();
     }
 
+    /**
+     * Return why this context was cancelled. If it has not been, the returned optional will be empty.
+     */
+    public Optional<CancellationCause> getCancellationCause() {
+        return Optional.ofNullable(this.life.cancellationCause());
+    }
+
+    /**
+     * Throw the preallocated {@link CtxCancelledException} for the cancellation cause if this
+     * context has been cancelled.
+     */
+    public void throwIfCancelled() throws CtxCancelledException {
+        final CancellationCause cause = this.life.cancellationCause();
+        if (cause != null) {
+            throw cause.toException();
+        }
+    }
+
     /**
      * Add a callback to be invoked when this context is detached from a thread.
      * It will be invoked on the thread from which it is being detached.
@@ -270,12 +574,118 @@ public class Ctx implements AutoCloseable {
         return this.life.onCancel(runnable);
     }
 
+    /**
+     * Return a stage which completes with the cancellation cause once this context is cancelled.
+     * Every call returns a new stage, so completing one affects no other caller; they all depend on
+     * a single cancel listener.
+     */
+    public CompletionStage<CancellationCause> whenCancelled() {
+        return this.life.whenCancelled();
+    }
+
+    /**
+     * Cancel the future, without interrupting, if this context is cancelled before it completes.
+     * The cancel listener is removed once the future completes, see {@link #newBinding()}.
+     *
+     * @return the future.
+     */
+    public <T> CompletableFuture<T> bind(final CompletableFuture<T> future) {
+        final Binding binding = newBinding();
+        binding.bind(() -> future.cancel(false));
+        future.whenComplete((result, error) -> binding.dispose());
+        return future;
+    }
+
+    /**
+     * Create an unbound {@link Binding}, for an operation which only learns how to cancel itself
+     * once it starts, such as a reactive subscription. The cancel listener it registers lives only as
+     * long as the operation, so binding many operations to a long lived context does not accumulate
+     * listeners.
+     */
+    public Binding newBinding() {
+        return new Binding(this);
+    }
+
+    /**
+     * Like {@link CompletableFuture#supplyAsync(Supplier, Executor)}, with this context attached
+     * while the supplier runs.
+     */
+    public <T> CompletableFuture<T> supplyAsync(final Supplier<T> supplier, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            final Ctx previous = enter();
+            try {
+                return supplier.get();
+            } finally {
+                exit(previous);
+            }
+        }, executor);
+    }
+
+    /**
+     * Like {@link CompletableFuture#runAsync(Runnable, Executor)}, with this context attached
+     * while the runnable runs.
+     */
+    public CompletableFuture<Void> runAsync(final Runnable runnable, final Executor executor) {
+        return CompletableFuture.runAsync(propagate(runnable), executor);
+    }
+
+    /**
+     * Like {@link CompletionStage#thenApplyAsync(Function, Executor)}, with this context attached
+     * while the function runs.
+     */
+    public <T, U> CompletionStage<U> thenApplyAsync(final CompletionStage<T> stage,
+                                                    final Function<? super T, ? extends U> fn,
+                                                    final Executor executor) {
+        return stage.thenApplyAsync((value) -> {
+            final Ctx previous = enter();
+            try {
+                return fn.apply(value);
+            } finally {
+                exit(previous);
+            }
+        }, executor);
+    }
+
+    /**
+     * Like {@link CompletionStage#thenAcceptAsync(Consumer, Executor)}, with this context attached
+     * while the consumer runs.
+     */
+    public <T> CompletionStage<Void> thenAcceptAsync(final CompletionStage<T> stage,
+                                                     final Consumer<? super T> action,
+                                                     final Executor executor) {
+        return stage.thenAcceptAsync((value) -> {
+            final Ctx previous = enter();
+            try {
+                action.accept(value);
+            } finally {
+                exit(previous);
+            }
+        }, executor);
+    }
+
+    /**
+     * Like {@link CompletionStage#thenComposeAsync(Function, Executor)}, with this context attached
+     * while the function runs.
+     */
+    public <T, U> CompletionStage<U> thenComposeAsync(final CompletionStage<T> stage,
+                                                      final Function<? super T, ? extends CompletionStage<U>> fn,
+                                                      final Executor executor) {
+        return stage.thenComposeAsync((value) -> {
+            final Ctx previous = enter();
+            try {
+                return fn.apply(value);
+            } finally {
+                exit(previous);
+            }
+        }, executor);
+    }
+
     /**
      * Create a new context with an independent lifetime from this context. It will keep
      * all the values associated with this context, but have its own lifecycle.
      */
     public Ctx newRoot() {
-        return new Ctx(new Life(Optional.empty()), new HashMap<>(this.values));
+        return new Ctx(new Life(Optional.empty()), this.values);
     }
 
     /**
@@ -288,31 +698,67 @@ public class Ctx implements AutoCloseable {
         return AttachingExecutor.infect(exec);
     }
 
+    /**
+     * Creates a ScheduledExecutorService which propagates attached contexts. Delayed and periodic
+     * tasks run with the context which was attached when they were scheduled.
+     */
+    public static ScheduledExecutorService createPropagatingExecutor(final ScheduledExecutorService exec) {
+        return AttachingScheduledExecutor.infect(exec);
+    }
+
+    /**
+     * Creates a stream over the spliterator which has this context attached while it is traversed,
+     * like {@link StreamSupport#stream(Spliterator, boolean)}. The stages of a parallel stream run on
+     * fork/join workers, which would otherwise have no context, or an unrelated one.
+     * <p>
+     * The context is attached once per split of the source, not per element. Once this context is
+     * cancelled, splits which have not started yet throw {@link CtxCancelledException} and the
+     * terminal operation fails with it.
+     */
+    public <T> Stream<T> stream(final Spliterator<T> spliterator, final boolean parallel) {
+        return StreamSupport.stream(new CtxSpliterator<>(this, spliterator), parallel);
+    }
+
+    /**
+     * Like {@link Collection#parallelStream()}, with this context attached on the threads which run
+     * the stream, see {@link #stream(Spliterator, boolean)}.
+     */
+    public <T> Stream<T> parallelStream(final Collection<T> collection) {
+        return stream(collection.spliterator(), true);
+    }
+
+    /**
+     * Creates a fixed size pool which propagates attached contexts, and keeps a context attached to a
+     * worker across consecutive tasks submitted with that same context.
+     * <p>
+     * Where {@link #createPropagatingExecutor(ExecutorService)} attaches and detaches around every task,
+     * this pool only swaps the attached context when the next task carries a different one, so
+     * {@link #onAttach(Runnable)} and {@link #onDetach(Runnable)} listeners fire once per run of tasks
+     * rather than once per task. It pays off when many small tasks are submitted from one request.
+     */
+    public static ExecutorService createStickyPropagatingExecutor(final int threads, final ThreadFactory threadFactory) {
+        return new StickyAttachingExecutor(threads, threadFactory);
+    }
+
+    /**
+     * Sticky propagating pool using the default thread factory, see
+     * {@link #createStickyPropagatingExecutor(int, ThreadFactory)}.
+     */
+    public static ExecutorService createStickyPropagatingExecutor(final int threads) {
+        return createStickyPropagatingExecutor(threads, Executors.defaultThreadFactory());
+    }
+
     /**
      * Wraps a runnable such that this context is bound to the thread on which the
      * runnable is run.
      */
     public Runnable propagate(final Runnable r) {
         return () -> {
-            final Optional<Ctx> attached = Ctx.fromThread();
-            if (attached.isPresent()) {
-                if (attached.get() == Ctx.this) {
-                    r.run();
-                }
-                else {
-                    try (Ctx ignored = Ctx.this.attachToThread()) {
-                        r.run();
-                    } finally {
-                        // reattach previous ctx
-                        attached.get().attachToThread();
-                    }
-                }
-            }
-            else {
-                // no pre-existing context on the thread
-                try (Ctx _i = Ctx.this.attachToThread()) {
-                    r.run();
-                }
+            final Ctx previous = enter();
+            try {
+                r.run();
+            } finally {
+                exit(previous);
             }
         };
     }
@@ -323,53 +769,132 @@ public class Ctx implements AutoCloseable {
      */
     public <T> Callable<T> propagate(final Callable<T> r) {
         return () -> {
-            final Optional<Ctx> attached = Ctx.fromThread();
-            if (attached.isPresent()) {
-                if (attached.get() == Ctx.this) {
-                    return r.call();
-                }
-                else {
-                    try (Ctx ignored = Ctx.this.attachToThread()) {
-                        return r.call();
-                    } finally {
-                        // reattach previous ctx
-                        attached.get().attachToThread();
-                    }
-                }
-            }
-            else {
-                // no pre-existing context on the thread
-                try (Ctx _i = Ctx.this.attachToThread()) {
-                    return r.call();
-                }
+            final Ctx previous = enter();
+            try {
+                return r.call();
+            } finally {
+                exit(previous);
             }
         };
     }
 
     /**
-     * Creates a dynamic proxy which propagates this context to all invoked methods. It is intended for use
-     * with functional interfaces, but should work fine for any interface.
+     * Wraps an object such that this context is bound to the thread for every call to the interfaces
+     * it implements. It is intended for use with functional interfaces, but should work fine for any interface.
+     * <p>
+     * Lambdas of the {@code java.util.function} interfaces, {@link Runnable} and {@link Callable} are
+     * wrapped in a plain lambda; anything else gets a dynamic proxy.
      * <p>
      * The return value *must* be an interface for it to not explode nastily at runtime.
      */
+    @SuppressWarnings("unchecked")
     public <T> T propagate(final T fi) {
-        return (T) Proxy.newProxyInstance(fi.getClass().getClassLoader(),
-                                          fi.getClass().getInterfaces(),
-                                          (p, method, args) -> this.propagate(() -> method.invoke(fi, args)).call());
+        return (T) Propagation.wrap(this, fi);
     }
 
     /**
      * A typed, named, key for a value in a context. See {@link Ctx#with(Key, Object)} and {@link Ctx#get(Key)}.
+     * <p>
+     * Keys are interned by {@link Ctx#key(String, Class)}, so two keys are equal only if they are the same
+     * instance.
      *
      * @param <T> type of the value this key accesses.
      */
     public static final class Key<T> {
+        private static final ClassValue<ConcurrentMap<String, KeyRef>> REGISTRY = new ClassValue<ConcurrentMap<String, KeyRef>>() {
+            @Override
+            protected ConcurrentMap<String, KeyRef> computeValue(final Class<?> type) {
+                return new ConcurrentHashMap<>();
+            }
+        };
+        private static final ReferenceQueue<Key<?>> COLLECTED = new ReferenceQueue<>();
+        private static final Object CREATING = new Object();
+        private static final AtomicInteger NEXT_SLOT = new AtomicInteger();
+
+        /**
+         * Slots of collected keys. A collected key is in no value store, as they reference their keys.
+         */
+        private static final ConcurrentLinkedQueue<Integer> FREE_SLOTS = new ConcurrentLinkedQueue<>();
+        private static final ConcurrentMap<String, Key<?>> PROPAGATED = new ConcurrentHashMap<>();
+
         private final Class<T> type;
         private final String name;
+        final int slot;
 
-        private Key(final Class<T> type, final String name) {
+        /**
+         * Set once the key is propagated, see {@link Ctx#key(String, Class, KeyCodec)}.
+         */
+        volatile KeyCodec<T> codec;
+
+        private Key(final Class<T> type, final String name, final int slot) {
             this.type = type;
             this.name = name;
+            this.slot = slot;
+        }
+
+        /**
+         * @param freshSlot whether a new key gets a slot which was never used before, rather than a
+         *                  recycled one, so that propagated keys are in slot order by creation, see
+         *                  {@link CtxCodec}.
+         */
+        @SuppressWarnings("unchecked")
+        private static <T> Key<T> intern(final Class<T> type, final String name, final boolean freshSlot) {
+            final ConcurrentMap<String, KeyRef> named = REGISTRY.get(type);
+            Key<?> existing = live(named.get(name));
+            if (existing != null) {
+                return (Key<T>) existing;
+            }
+            expungeCollected();
+            synchronized (CREATING) {
+                existing = live(named.get(name));
+                if (existing != null) {
+                    return (Key<T>) existing;
+                }
+                final Integer free = freshSlot ? null : FREE_SLOTS.poll();
+                final Key<T> key = new Key<>(type, name, free != null ? free : NEXT_SLOT.getAndIncrement());
+                named.put(name, new KeyRef(key, named));
+                return key;
+            }
+        }
+
+        private static Key<?> live(final KeyRef ref) {
+            return ref == null ? null : ref.get();
+        }
+
+        private static void expungeCollected() {
+            Reference<? extends Key<?>> ref;
+            while ((ref = COLLECTED.poll()) != null) {
+                final KeyRef collected = (KeyRef) ref;
+                collected.named.remove(collected.name, collected);
+                FREE_SLOTS.add(collected.slot);
+            }
+        }
+
+        /**
+         * @return the propagated key with the given name, or null if there is none.
+         */
+        static Key<?> propagated(final String name) {
+            return PROPAGATED.get(name);
+        }
+
+        private synchronized void propagateWith(final KeyCodec<T> codec) {
+            Objects.requireNonNull(codec, "codec");
+            if (this.codec == codec) {
+                return;
+            }
+            if (this.codec != null) {
+                throw new IllegalStateException("Key " + this.name + " already has a codec");
+            }
+            final Key<?> existing = PROPAGATED.putIfAbsent(this.name, this);
+            if (existing != null) {
+                throw new IllegalStateException("A key of type " + existing.type.getName() + " named "
+                                                 + this.name + " is already propagated");
+            }
+            this.codec = codec;
+        }
+
+        String name() {
+            return this.name;
         }
 
         public T cast(final Object obj) {
@@ -378,24 +903,199 @@ public class Ctx implements AutoCloseable {
 
         @Override
         public boolean equals(final Object o) {
-            if (this == o) {
-                return true;
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.slot;
+        }
+
+        /**
+         * A registry entry, which gives the key's slot back once the key is collected.
+         */
+        private static final class KeyRef extends WeakReference<Key<?>> {
+            private final String name;
+            private final int slot;
+            private final ConcurrentMap<String, KeyRef> named;
+
+            KeyRef(final Key<?> key, final ConcurrentMap<String, KeyRef> named) {
+                super(key, COLLECTED);
+                this.name = key.name;
+                this.slot = key.slot;
+                this.named = named;
             }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
+        }
+    }
+
+    /**
+     * A named key for a long value. See {@link Ctx#with(LongKey, long)} and {@link Ctx#getLong(LongKey, long)}.
+     */
+    public static final class LongKey {
+        private final Key<Long> key;
+
+        private LongKey(final Key<Long> key) {
+            this.key = key;
+        }
+
+        /**
+         * @return the equivalent boxed key.
+         */
+        public Key<Long> boxed() {
+            return this.key;
+        }
+    }
+
+    /**
+     * A named key for an int value. See {@link Ctx#with(IntKey, int)} and {@link Ctx#getInt(IntKey, int)}.
+     */
+    public static final class IntKey {
+        private final Key<Integer> key;
+
+        private IntKey(final Key<Integer> key) {
+            this.key = key;
+        }
+
+        /**
+         * @return the equivalent boxed key.
+         */
+        public Key<Integer> boxed() {
+            return this.key;
+        }
+    }
+
+    /**
+     * A named key for a boolean value. See {@link Ctx#with(BooleanKey, boolean)} and
+     * {@link Ctx#getBoolean(BooleanKey, boolean)}.
+     */
+    public static final class BooleanKey {
+        private final Key<Boolean> key;
+
+        private BooleanKey(final Key<Boolean> key) {
+            this.key = key;
+        }
+
+        /**
+         * @return the equivalent boxed key.
+         */
+        public Key<Boolean> boxed() {
+            return this.key;
+        }
+    }
+
+    /**
+     * Adds several values to a context at once, see {@link Ctx#toBuilder()}. The values are inserted
+     * together when the context is built, copying each node of the value store they touch once, where a
+     * chain of {@link Ctx#with(Key, Object)} calls copies the store once per value.
+     * <p>
+     * A builder is not thread safe. It may be built more than once, and each context it builds holds
+     * everything put into it so far.
+     */
+    public static final class Builder {
+        private final Life life;
+        private final ValueMap base;
+        private Key<?>[] keys = new Key<?>[8];
+        private Object[] values = new Object[8];
+        private int size;
+
+        private Builder(final Life life, final ValueMap base) {
+            this.life = life;
+            this.base = base;
+        }
+
+        public <T> Builder put(final Key<T> key, final T value) {
+            if (this.size == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, this.size << 1);
+                this.values = Arrays.copyOf(this.values, this.size << 1);
             }
+            this.keys[this.size] = key;
+            this.values[this.size] = value;
+            this.size++;
+            return this;
+        }
 
-            final Key<?> key = (Key<?>) o;
+        public Builder put(final LongKey key, final long value) {
+            return put(key.key, value);
+        }
 
-            return this.type.equals(key.type) && this.name.equals(key.name);
+        public Builder put(final IntKey key, final int value) {
+            return put(key.key, value);
+        }
 
+        public Builder put(final BooleanKey key, final boolean value) {
+            return put(key.key, value);
+        }
+
+        /**
+         * Put a value for each entry of the map, see {@link Ctx#with(Map, Class)}.
+         */
+        public <T> Builder putAll(final Map<String, T> values, final Class<T> valueType) {
+            for (Map.Entry<String, T> entry : values.entrySet()) {
+                put(key(entry.getKey(), valueType), entry.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * @return a peer of the context this builder came from, holding its values and every value put
+         * into this builder, a later value for the same key replacing an earlier one.
+         */
+        public Ctx build() {
+            return new Ctx(this.life, this.base.withAll(this.keys, this.values, this.size));
+        }
+    }
+
+    /**
+     * The cancel listener of one operation, see {@link Ctx#newBinding()}. {@link #bind(Runnable)} registers
+     * the action to run if the context is cancelled, and {@link #dispose()}, called when the operation ends,
+     * removes it. Disposing more than once, or before binding, is harmless; an action bound after disposal
+     * is not registered.
+     */
+    public static final class Binding implements Disposable {
+        private static final Disposable DISPOSED = () -> { };
+        private static final AtomicReferenceFieldUpdater<Binding, Disposable> LISTENER =
+                AtomicReferenceFieldUpdater.newUpdater(Binding.class, Disposable.class, "listener");
+
+        private final Ctx ctx;
+        private volatile Disposable listener;
+
+        private Binding(final Ctx ctx) {
+            this.ctx = ctx;
+        }
+
+        /**
+         * Run the action if the context is cancelled before this binding is disposed, at once if it is
+         * cancelled already. A binding is bound once.
+         *
+         * @throws IllegalStateException if an action was bound already.
+         */
+        public void bind(final Runnable action) {
+            if (this.listener == null) {
+                final Disposable registered = this.ctx.onCancel(action);
+                if (LISTENER.compareAndSet(this, null, registered)) {
+                    return;
+                }
+                // disposed or bound concurrently
+                registered.dispose();
+            }
+            if (this.listener != DISPOSED) {
+                throw new IllegalStateException("Binding is already bound");
+            }
         }
 
         @Override
-        public int hashCode() {
-            int result = this.type.hashCode();
-            result = 31 * result + this.name.hashCode();
-            return result;
+        public void dispose() {
+            final Disposable registered = LISTENER.getAndSet(this, DISPOSED);
+            if (registered != null) {
+                registered.dispose();
+            }
         }
     }
+
+    /**
+     * Holds the Ctx attached to a thread, or to a scoped {@link #runAttached(Runnable)} block.
+     */
+    static final class Attachment {
+        Ctx ctx;
+    }
 }
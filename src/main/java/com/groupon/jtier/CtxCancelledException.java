@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+/**
+ * Thrown to abandon work for a cancelled {@link Ctx}, see {@link Ctx#throwIfCancelled()}.
+ * <p>
+ * Instances are preallocated, one per {@link CancellationCause}, and shared: they carry no stack
+ * trace and do not record suppressed exceptions, so throwing one costs no more than any other jump.
+ */
+public final class CtxCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient CancellationCause cancellationCause;
+
+    CtxCancelledException(final CancellationCause cancellationCause) {
+        super("Ctx cancelled: " + cancellationCause.getReason(), null, false, false);
+        this.cancellationCause = cancellationCause;
+    }
+
+    public CancellationCause getCancellationCause() {
+        return this.cancellationCause;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Encodes the propagated values of a {@link Ctx}, those whose key has a {@link KeyCodec}, for
+ * sending to another process, and decodes them on the other side. Values of other keys stay local.
+ * <p>
+ * There are two forms. {@link #encode(Ctx)} gives a map from key name to encoded value, suitable for
+ * HTTP headers. {@link #writeTo(Ctx, ByteBuffer)} gives a compact binary form for RPC or message
+ * headers: a varint count of entries, then for each entry the varint length prefixed UTF-8 bytes of
+ * the key name and of the value.
+ * <p>
+ * The encoded names and values of a context must fit in a budget of bytes (UTF-8). Values are taken
+ * in the order their keys were created, for keys created with their codec by
+ * {@link Ctx#key(String, Class, KeyCodec)}, and one which does not fit in what is left of the budget is
+ * left out. The budget applies when decoding as well, to bound what a caller can put into a context.
+ * <p>
+ * A context is encoded once and the result kept on the context, so encoding it again for every call
+ * of a fan out costs nothing. Keys should get their codec before any context is encoded.
+ */
+public final class CtxCodec {
+
+    /**
+     * Default budget, which leaves room for other headers within common HTTP header size limits.
+     */
+    public static final int DEFAULT_BUDGET = 4096;
+
+    private static final CtxCodec DEFAULT = new CtxCodec(DEFAULT_BUDGET);
+
+    private final int budget;
+
+    private CtxCodec(final int budget) {
+        this.budget = budget;
+    }
+
+    public static CtxCodec create() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param budget the maximum number of bytes of names and values to encode or decode.
+     */
+    public static CtxCodec withBudget(final int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget must not be negative: " + budget);
+        }
+        return budget == DEFAULT_BUDGET ? DEFAULT : new CtxCodec(budget);
+    }
+
+    /**
+     * @return the propagated values of the context, by key name. The map is unmodifiable, and the same
+     * instance is returned for every call with the same context.
+     */
+    public Map<String, String> encode(final Ctx ctx) {
+        return encoded(ctx).map;
+    }
+
+    /**
+     * @return the number of bytes {@link #writeTo(Ctx, ByteBuffer)} will write for the context.
+     */
+    public int encodedSize(final Ctx ctx) {
+        return encoded(ctx).bytes.length;
+    }
+
+    /**
+     * Write the binary form of the context's propagated values into the buffer, which the caller may
+     * reuse from one call to the next.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer has less than {@link #encodedSize(Ctx)}
+     *                                          bytes remaining.
+     */
+    public void writeTo(final Ctx ctx, final ByteBuffer out) {
+        out.put(encoded(ctx).bytes);
+    }
+
+    /**
+     * @return the binary form of the context's propagated values, in a new array.
+     */
+    public byte[] toBytes(final Ctx ctx) {
+        return encoded(ctx).bytes.clone();
+    }
+
+    /**
+     * Add the values in the map to the context. Entries with a name which is not a propagated key, or
+     * with a value the key's codec cannot decode, are skipped.
+     */
+    public Ctx decode(final Ctx ctx, final Map<String, String> values) {
+        final Decoder decoder = new Decoder(ctx, this.budget);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            decoder.accept(entry.getKey(), entry.getValue());
+        }
+        return decoder.build();
+    }
+
+    /**
+     * Add the values in the binary form, read from the buffer's position, to the context. Entries are
+     * skipped as for {@link #decode(Ctx, Map)}.
+     *
+     * @throws IllegalArgumentException if the buffer does not hold a well formed encoding.
+     */
+    public Ctx decode(final Ctx ctx, final ByteBuffer in) {
+        final Decoder decoder = new Decoder(ctx, this.budget);
+        try {
+            final int count = readVarint(in);
+            for (int i = 0; i < count; i++) {
+                final String name = readString(in);
+                decoder.accept(name, readString(in));
+            }
+        }
+        catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated ctx encoding", e);
+        }
+        return decoder.build();
+    }
+
+    public Ctx decode(final Ctx ctx, final byte[] in) {
+        return decode(ctx, ByteBuffer.wrap(in));
+    }
+
+    private Encoded encoded(final Ctx ctx) {
+        final Encoded cached = ctx.encoded;
+        if (cached != null && cached.budget == this.budget) {
+            return cached;
+        }
+        Encoder encoder = new Encoder(this.budget, false);
+        ctx.values().forEach(encoder);
+        if (!encoder.sorted) {
+            encoder = new Encoder(this.budget, true);
+            ctx.values().forEach(encoder);
+        }
+        final Encoded encoded = encoder.finish();
+        ctx.encoded = encoded;
+        return encoded;
+    }
+
+    private static int readVarint(final ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in ctx encoding");
+    }
+
+    private static String readString(final ByteBuffer in) {
+        final int length = readVarint(in);
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated ctx encoding");
+        }
+        final String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+        else {
+            final byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static int varintSize(final int value) {
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    private static void writeVarint(final ByteBuffer out, final int value) {
+        int v = value;
+        while ((v & ~0x7f) != 0) {
+            out.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    /**
+     * Both forms of the propagated values of a context, for one budget.
+     */
+    static final class Encoded {
+        private final int budget;
+        private final Map<String, String> map;
+        private final byte[] bytes;
+
+        private Encoded(final int budget, final Map<String, String> map, final byte[] bytes) {
+            this.budget = budget;
+            this.map = map;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Encodes the propagated values in slot order, so that the budget favours the keys created first.
+     * <p>
+     * The value store visits them in trie order, which is slot order as long as all slots are on the
+     * first level of the trie, as in most contexts. So values are encoded as they are visited, until
+     * one comes out of order; then the encoding is redone by an encoder which collects and sorts them.
+     */
+    private static final class Encoder implements BiConsumer<Ctx.Key<?>, Object> {
+        private final int budget;
+        private final List<Ctx.Key<?>> keys;
+        private final List<Object> values;
+        private final Map<String, String> map = new LinkedHashMap<>();
+        private final List<byte[]> parts = new ArrayList<>();
+        private int used;
+        private int size;
+        private int lastSlot = -1;
+        private boolean sorted = true;
+
+        Encoder(final int budget, final boolean collect) {
+            this.budget = budget;
+            this.keys = collect ? new ArrayList<>() : null;
+            this.values = collect ? new ArrayList<>() : null;
+        }
+
+        @Override
+        public void accept(final Ctx.Key<?> key, final Object value) {
+            if (key.codec == null || value == null) {
+                return;
+            }
+            if (this.keys != null) {
+                this.keys.add(key);
+                this.values.add(value);
+                return;
+            }
+            if (key.slot < this.lastSlot) {
+                this.sorted = false;
+            }
+            this.lastSlot = key.slot;
+            if (this.sorted) {
+                add(key, value);
+            }
+        }
+
+        Encoded finish() {
+            if (this.keys != null) {
+                final int count = this.keys.size();
+                final long[] order = new long[count];
+                for (int i = 0; i < count; i++) {
+                    order[i] = ((long) this.keys.get(i).slot << 32) | i;
+                }
+                Arrays.sort(order);
+                for (long o : order) {
+                    final int i = (int) o;
+                    add(this.keys.get(i), this.values.get(i));
+                }
+            }
+
+            final ByteBuffer out = ByteBuffer.allocate(varintSize(this.map.size()) + this.size);
+            writeVarint(out, this.map.size());
+            for (byte[] part : this.parts) {
+                writeVarint(out, part.length);
+                out.put(part);
+            }
+            return new Encoded(this.budget, Collections.unmodifiableMap(this.map), out.array());
+        }
+
+        @SuppressWarnings("unchecked")
+        private void add(final Ctx.Key<?> key, final Object value) {
+            final KeyCodec<Object> codec = (KeyCodec<Object>) key.codec;
+            if (codec == null) {
+                return;
+            }
+            final String encoded = codec.encode(value);
+            if (encoded == null) {
+                return;
+            }
+            final byte[] name = key.name().getBytes(StandardCharsets.UTF_8);
+            final byte[] bytes = encoded.getBytes(StandardCharsets.UTF_8);
+            if (name.length + bytes.length > this.budget - this.used) {
+                return;
+            }
+            this.used += name.length + bytes.length;
+            this.size += varintSize(name.length) + name.length + varintSize(bytes.length) + bytes.length;
+            this.map.put(key.name(), encoded);
+            this.parts.add(name);
+            this.parts.add(bytes);
+        }
+    }
+
+    private static final class Decoder {
+        private final int budget;
+        private final Ctx.Builder builder;
+        private int used;
+
+        Decoder(final Ctx ctx, final int budget) {
+            this.builder = ctx.toBuilder();
+            this.budget = budget;
+        }
+
+        Ctx build() {
+            return this.builder.build();
+        }
+
+        @SuppressWarnings("unchecked")
+        void accept(final String name, final String value) {
+            final Ctx.Key<Object> key = (Ctx.Key<Object>) Ctx.Key.propagated(name);
+            if (key == null || value == null) {
+                return;
+            }
+            final KeyCodec<Object> codec = key.codec;
+            if (codec == null) {
+                // being registered concurrently
+                return;
+            }
+            final int length = utf8Length(name) + utf8Length(value);
+            if (length > this.budget - this.used) {
+                return;
+            }
+            final Object decoded;
+            try {
+                decoded = codec.decode(value);
+            }
+            catch (RuntimeException e) {
+                return;
+            }
+            if (decoded != null) {
+                this.used += length;
+                this.builder.put(key, decoded);
+            }
+        }
+    }
+
+    private static int utf8Length(final String s) {
+        int length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x800) {
+                // surrogate pairs are 4 bytes for 2 chars, everything else above 0x800 is 3 bytes
+                length += Character.isSurrogate(c) ? 1 : 2;
+            }
+            else if (c >= 0x80) {
+                length += 1;
+            }
+        }
+        return length;
+    }
+}
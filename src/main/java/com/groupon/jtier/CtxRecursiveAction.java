@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A {@link java.util.concurrent.RecursiveAction} which runs with the context that was attached to the
+ * thread which created it, see {@link CtxRecursiveTask}.
+ */
+public abstract class CtxRecursiveAction extends ForkJoinTask<Void> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Ctx ctx;
+
+    protected CtxRecursiveAction() {
+        this.ctx = Ctx.currentOrNull();
+    }
+
+    /**
+     * The main computation performed by this task, with its context attached.
+     */
+    protected abstract void compute();
+
+    @Override
+    public final Void getRawResult() {
+        return null;
+    }
+
+    @Override
+    protected final void setRawResult(final Void mustBeNull) {
+    }
+
+    @Override
+    protected final boolean exec() {
+        if (this.ctx == null) {
+            compute();
+            return true;
+        }
+        final Ctx previous = this.ctx.enter();
+        try {
+            compute();
+        } finally {
+            this.ctx.exit(previous);
+        }
+        return true;
+    }
+}
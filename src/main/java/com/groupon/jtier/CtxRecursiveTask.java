@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A {@link java.util.concurrent.RecursiveTask} which runs with the context that was attached to the
+ * thread which created it. Subtasks are created by the task that forks them, so each one carries the
+ * context across the fork, and the thread which joins it keeps whatever context it had attached.
+ * <p>
+ * Use it in place of {@code RecursiveTask} for fork/join work done on behalf of a request, so that
+ * {@link Ctx#fromThread()} in {@link #compute()} sees the request's values, deadline and cancellation.
+ */
+public abstract class CtxRecursiveTask<V> extends ForkJoinTask<V> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Ctx ctx;
+    private V result;
+
+    protected CtxRecursiveTask() {
+        this.ctx = Ctx.currentOrNull();
+    }
+
+    /**
+     * The main computation performed by this task, with its context attached.
+     */
+    protected abstract V compute();
+
+    @Override
+    public final V getRawResult() {
+        return this.result;
+    }
+
+    @Override
+    protected final void setRawResult(final V value) {
+        this.result = value;
+    }
+
+    @Override
+    protected final boolean exec() {
+        if (this.ctx == null) {
+            this.result = compute();
+            return true;
+        }
+        final Ctx previous = this.ctx.enter();
+        try {
+            this.result = compute();
+        } finally {
+            this.ctx.exit(previous);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator which attaches a context while it is traversed, see {@link Ctx#stream(Spliterator, boolean)}.
+ * A parallel stream traverses each split on a fork/join worker, running the whole pipeline for that
+ * split inside {@link #forEachRemaining(Consumer)}, so the context is attached once per split rather
+ * than once per element. Splits of a cancelled context are not traversed.
+ */
+final class CtxSpliterator<T> implements Spliterator<T> {
+
+    private final Ctx ctx;
+    private final Spliterator<T> target;
+
+    CtxSpliterator(final Ctx ctx, final Spliterator<T> target) {
+        this.ctx = ctx;
+        this.target = target;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super T> action) {
+        this.ctx.throwIfCancelled();
+        final Ctx previous = this.ctx.enter();
+        try {
+            return this.target.tryAdvance(action);
+        } finally {
+            this.ctx.exit(previous);
+        }
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super T> action) {
+        this.ctx.throwIfCancelled();
+        final Ctx previous = this.ctx.enter();
+        try {
+            this.target.forEachRemaining(action);
+        } finally {
+            this.ctx.exit(previous);
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        final Spliterator<T> split = this.target.trySplit();
+        return split == null ? null : new CtxSpliterator<>(this.ctx, split);
+    }
+
+    @Override
+    public long estimateSize() {
+        return this.target.estimateSize();
+    }
+
+    @Override
+    public long getExactSizeIfKnown() {
+        return this.target.getExactSizeIfKnown();
+    }
+
+    @Override
+    public int characteristics() {
+        return this.target.characteristics();
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+        return this.target.getComparator();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+/**
+ * Storage for the context attached to the current thread. {@link Ctx#attachToThread()}, {@link Ctx#close()},
+ * {@link Ctx#fromThread()} and the {@code propagate} wrappers all go through it.
+ * <p>
+ * The implementation is selected once, at startup, with the {@code jtier.ctx.storage} system property:
+ * {@code threadlocal} (the default, {@link ThreadLocalCtxStorage}), {@code indexed}
+ * ({@link IndexedCtxStorage}), or the class name of a custom implementation with a public no argument
+ * constructor. Implementations only ever see calls from the thread whose context they store.
+ */
+public interface CtxStorage {
+    /**
+     * @return the context attached to the current thread, or null.
+     */
+    Ctx get();
+
+    /**
+     * Sets the context attached to the current thread, null to clear it.
+     */
+    void set(Ctx ctx);
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread which carries its own context slots, for use with {@link IndexedCtxStorage}.
+ */
+public class CtxThread extends Thread implements IndexedCtxStorage.SlotCarrier {
+
+    private static final Object[] NO_SLOTS = new Object[0];
+
+    private Object[] slots = NO_SLOTS;
+
+    public CtxThread(final Runnable target) {
+        super(target);
+    }
+
+    public CtxThread(final Runnable target, final String name) {
+        super(target, name);
+    }
+
+    public CtxThread(final ThreadGroup group, final Runnable target, final String name) {
+        super(group, target, name);
+    }
+
+    @Override
+    public final Object ctxSlot(final int index) {
+        final Object[] s = this.slots;
+        return index < s.length ? s[index] : null;
+    }
+
+    @Override
+    public final void ctxSlot(final int index, final Object value) {
+        if (index >= this.slots.length) {
+            this.slots = Arrays.copyOf(this.slots, index + 1);
+        }
+        this.slots[index] = value;
+    }
+
+    /**
+     * Creates a thread factory making {@link CtxThread}s named {@code namePrefix-N}.
+     */
+    public static ThreadFactory factory(final String namePrefix, final boolean daemon) {
+        final AtomicInteger count = new AtomicInteger();
+        return (r) -> {
+            final Thread t = new CtxThread(r, namePrefix + "-" + count.incrementAndGet());
+            t.setDaemon(daemon);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries a context's deadline across a remote call as a header holding the whole number of
+ * milliseconds remaining, {@code X-Request-Timeout} by default.
+ * <p>
+ * The caller writes the header with {@link #format(Ctx)}. The receiver reads it with
+ * {@link #apply(Ctx, String)}, which gives the request context a timeout of the received budget,
+ * less a slack for the time the call spent on the network, and clamped to a configured range. The
+ * receiver then stops working on the request about when the caller gives up on it. Instances are
+ * immutable; each {@code with} method returns a copy.
+ */
+public final class DeadlineHeader {
+
+    public static final String DEFAULT_NAME = "X-Request-Timeout";
+
+    private static final DeadlineHeader DEFAULT = new DeadlineHeader(DEFAULT_NAME, 0, 0, Long.MAX_VALUE);
+
+    private final String name;
+    private final long slackMillis;
+    private final long minimumMillis;
+    private final long maximumMillis;
+
+    private DeadlineHeader(final String name, final long slackMillis, final long minimumMillis, final long maximumMillis) {
+        this.name = name;
+        this.slackMillis = slackMillis;
+        this.minimumMillis = minimumMillis;
+        this.maximumMillis = maximumMillis;
+    }
+
+    /**
+     * @return a header named {@link #DEFAULT_NAME}, with no slack, and no clamping beyond treating an
+     * exhausted budget as zero.
+     */
+    public static DeadlineHeader create() {
+        return DEFAULT;
+    }
+
+    public DeadlineHeader withName(final String name) {
+        return new DeadlineHeader(Objects.requireNonNull(name, "name"), this.slackMillis, this.minimumMillis, this.maximumMillis);
+    }
+
+    /**
+     * Time subtracted from a received budget to account for the network and queueing between caller
+     * and receiver.
+     */
+    public DeadlineHeader withSlack(final Duration slack) {
+        return new DeadlineHeader(this.name, nonNegativeMillis(slack, "slack"), this.minimumMillis, this.maximumMillis);
+    }
+
+    /**
+     * Lower bound on the timeout set from a received budget, so that a request whose budget is nearly
+     * exhausted still gets a chance to fail cleanly.
+     */
+    public DeadlineHeader withMinimum(final Duration minimum) {
+        final long millis = nonNegativeMillis(minimum, "minimum");
+        if (millis > this.maximumMillis) {
+            throw new IllegalArgumentException("minimum " + minimum + " is above the maximum");
+        }
+        return new DeadlineHeader(this.name, this.slackMillis, millis, this.maximumMillis);
+    }
+
+    /**
+     * Upper bound on the timeout set from a received budget, so that a caller cannot hold the receiver's
+     * resources for longer than it allows.
+     */
+    public DeadlineHeader withMaximum(final Duration maximum) {
+        final long millis = nonNegativeMillis(maximum, "maximum");
+        if (millis < this.minimumMillis) {
+            throw new IllegalArgumentException("maximum " + maximum + " is below the minimum");
+        }
+        return new DeadlineHeader(this.name, this.slackMillis, this.minimumMillis, millis);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the value of the header for a call made on behalf of the context: the milliseconds
+     * remaining before its deadline, rounded down, or empty if it has no deadline.
+     */
+    public Optional<String> format(final Ctx ctx) {
+        final long nanos = ctx.remainingNanos();
+        if (nanos == Long.MAX_VALUE) {
+            return Optional.empty();
+        }
+        return Optional.of(Long.toString(TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+
+    /**
+     * Apply a received header to a request context.
+     *
+     * @param value the header value, or null if the header was not sent.
+     * @return a child of the context with a timeout of the received budget less the slack, clamped to
+     * the minimum and maximum; or the context itself if the value is null or not a number of milliseconds.
+     */
+    public Ctx apply(final Ctx ctx, final String value) {
+        if (value == null) {
+            return ctx;
+        }
+        final long budget;
+        try {
+            budget = Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return ctx;
+        }
+        if (budget < 0) {
+            return ctx;
+        }
+        final long millis = Math.min(Math.max(budget - this.slackMillis, this.minimumMillis), this.maximumMillis);
+        return ctx.withTimeout(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static long nonNegativeMillis(final Duration duration, final String name) {
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException(name + " must not be negative: " + duration);
+        }
+        return duration.toMillis();
+    }
+}
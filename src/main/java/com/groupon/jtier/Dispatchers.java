@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Implementations of {@link CancellationDispatch}.
+ */
+final class Dispatchers {
+    static final CancellationDispatch INLINE = (listeners) -> listeners.forEach(Runnable::run);
+
+    private Dispatchers() {
+    }
+
+    static final class Batched implements CancellationDispatch, Runnable {
+        private final Executor executor;
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Batched(final Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void dispatch(final List<? extends Runnable> listeners) {
+            this.queue.addAll(listeners);
+            if (this.scheduled.compareAndSet(false, true)) {
+                try {
+                    this.executor.execute(this);
+                }
+                catch (RejectedExecutionException e) {
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                Runnable listener;
+                while ((listener = this.queue.poll()) != null) {
+                    listener.run();
+                }
+                this.scheduled.set(false);
+                // listeners queued after the last poll but before the flag was cleared
+            } while (!this.queue.isEmpty() && this.scheduled.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link CtxStorage} which keeps the attached context in a slot array carried by the thread itself,
+ * in the manner of Netty's {@code FastThreadLocalThread}, so a lookup is a field read and an array
+ * load instead of a thread local map probe.
+ * <p>
+ * Only threads implementing {@link SlotCarrier}, such as those made by {@link CtxThread#factory(String, boolean)},
+ * take the fast path; any other thread falls back to a {@link ThreadLocalCtxStorage}.
+ */
+public final class IndexedCtxStorage implements CtxStorage {
+
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+
+    private final int index = NEXT_INDEX.getAndIncrement();
+    private final CtxStorage fallback = new ThreadLocalCtxStorage();
+
+    @Override
+    public Ctx get() {
+        final Thread thread = Thread.currentThread();
+        if (thread instanceof SlotCarrier) {
+            return (Ctx) ((SlotCarrier) thread).ctxSlot(this.index);
+        }
+        return this.fallback.get();
+    }
+
+    @Override
+    public void set(final Ctx ctx) {
+        final Thread thread = Thread.currentThread();
+        if (thread instanceof SlotCarrier) {
+            ((SlotCarrier) thread).ctxSlot(this.index, ctx);
+        }
+        else {
+            this.fallback.set(ctx);
+        }
+    }
+
+    /**
+     * Implemented by threads which carry their own context slots, typically in an array indexed by
+     * slot. Implement it on an existing {@link Thread} subclass (a {@code FastThreadLocalThread}, say)
+     * to give it the fast path. Slots are only ever accessed from the thread itself.
+     */
+    public interface SlotCarrier {
+        /**
+         * @return the value in the slot, null if it was never set.
+         */
+        Object ctxSlot(int index);
+
+        void ctxSlot(int index, Object value);
+    }
+}
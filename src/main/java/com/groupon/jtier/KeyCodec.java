@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Converts the value of a {@link Ctx.Key} to and from a string, marking the key as one to propagate
+ * to other processes. Attach it with {@link Ctx#key(String, Class, KeyCodec)}; {@link CtxCodec} only
+ * encodes the values of keys which have a codec.
+ */
+public interface KeyCodec<T> {
+
+    String encode(T value);
+
+    /**
+     * @throws RuntimeException if the string is not a valid encoding, in which case the value is
+     *                          left out of the decoded context.
+     */
+    T decode(String value);
+
+    static <T> KeyCodec<T> of(final Function<? super T, String> encode, final Function<String, ? extends T> decode) {
+        Objects.requireNonNull(encode, "encode");
+        Objects.requireNonNull(decode, "decode");
+        return new KeyCodec<T>() {
+            @Override
+            public String encode(final T value) {
+                return encode.apply(value);
+            }
+
+            @Override
+            public T decode(final String value) {
+                return decode.apply(value);
+            }
+        };
+    }
+
+    static KeyCodec<String> strings() {
+        return Codecs.STRING;
+    }
+
+    static KeyCodec<Long> longs() {
+        return Codecs.LONG;
+    }
+
+    static KeyCodec<Integer> ints() {
+        return Codecs.INT;
+    }
+
+    static KeyCodec<Boolean> booleans() {
+        return Codecs.BOOLEAN;
+    }
+}
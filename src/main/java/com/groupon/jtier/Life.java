@@ -13,149 +13,573 @@
  */
 package com.groupon.jtier;
 
-import org.immutables.value.Value;
-
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.time.Duration;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.time.temporal.Temporal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
+/**
+ * Cancellation state of a {@link Ctx}.
+ * <p>
+ * Cancelling, and registering or disposing a listener, never lock. The state is a CAS from alive to
+ * the {@link CancellationCause} of the cancellation, and listeners sit on a Treiber stack:
+ * registering pushes a node, and disposing marks the node as a tombstone. A push skips over
+ * tombstones at the top of the stack, which is where the short lived listeners of fan out code end
+ * up, and the rest are swept out once there have been more disposals than there were live listeners
+ * at the previous sweep, so both are amortized O(1). Cancelling swaps the stack for a closed marker
+ * and runs what was on it in registration order. The lock only guards setting up a timer for a
+ * timeout.
+ * <p>
+ * A life with live cancel listeners, or with a descendant that has some, is held strongly by its parent
+ * so that the listeners are called back even if nothing else references it. The hold is counted, and
+ * dropped along the chain of ancestors once the last of those listeners is disposed. Only the first and
+ * last count start or stop holding the parent, which a single thread at a time does without locking,
+ * and a parent which is already held just counts one more.
+ */
 class Life {
-    private final AtomicReference<Timeout> timeout = new AtomicReference<>();
-    private final AtomicReference<State> state = new AtomicReference<>(State.ALIVE);
-    private final List<Runnable> cancelListeners = new CopyOnWriteArrayList<>();
+    private static final Disposable NOT_ARMED = () -> {};
+    private static final long MAX_TIMEOUT_NANOS = Long.MAX_VALUE >> 1;
+
+    /**
+     * Minimum number of disposals between sweeps.
+     */
+    private static final int SWEEP_THRESHOLD = 32;
+
+    /**
+     * Replaces the listener stack once cancelled, so that later registrations run immediately.
+     */
+    private static final Listener CLOSED = new Listener(null, () -> {});
+
+    private static final ReferenceQueue<Life> COLLECTED = new ReferenceQueue<>();
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicReferenceFieldUpdater<Life, CompletableFuture<CancellationCause>> WHEN_CANCELLED =
+            (AtomicReferenceFieldUpdater<Life, CompletableFuture<CancellationCause>>) (AtomicReferenceFieldUpdater<Life, ?>)
+                    AtomicReferenceFieldUpdater.newUpdater(Life.class, CompletableFuture.class, "whenCancelled");
+
+    /**
+     * Null while alive, then why the life was cancelled.
+     */
+    private final AtomicReference<CancellationCause> cause = new AtomicReference<>();
+    private final AtomicReference<Listener> listeners = new AtomicReference<>();
+    private final AtomicInteger disposals = new AtomicInteger();
+
+    /**
+     * Live cancel listeners on this life, plus children holding it.
+     */
+    private final AtomicInteger holds = new AtomicInteger();
+
+    /**
+     * Requests to bring the hold on the parent in line with {@code holds}, see {@link #updateHolding()}.
+     */
+    private final AtomicInteger holdingUpdates = new AtomicInteger();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile int liveAtLastSweep;
     private final ReentrantLock lock = new ReentrantLock();
+    private final Life parent;
+    private final ChildRef registration;
+    private final CancellationDispatch dispatch;
+    private volatile CompletableFuture<CancellationCause> whenCancelled;
+
+    /**
+     * The effective timeout, as a {@link System#nanoTime()} value so that it is immune to wall clock
+     * changes. It is the earliest of this life's own timeout and those of its ancestors, which are
+     * copied in at construction. It is written before {@code hasDeadline}, which publishes it.
+     * <p>
+     * Deadline mode: while {@code lazy} is set the timeout is enforced by comparing the deadline
+     * against the clock in {@link #isCancelled()}. A timer is only scheduled on {@code wheel}, which
+     * is set when the deadline is this life's own, once something needs to be called back, see
+     * {@link #hold()}. An inherited deadline is enforced by the ancestor that owns it.
+     */
+    private volatile long deadline;
+    private volatile boolean hasDeadline;
+    private volatile boolean lazy;
+
+    // guarded by lock, written under it and read by cancel
+    private volatile Disposable timer = NOT_ARMED;
+
+    // written under lock, read when starting to hold the parent
+    private volatile TimerWheel wheel;
 
+    // guarded by lock
+    private boolean armed;
+    private boolean inherited;
+
+    /**
+     * Whether this life holds its parent, written by the thread updating the hold.
+     */
+    private volatile boolean listened;
 
     Life(final Optional<Life> parent) {
-        parent.ifPresent((p) -> p.onCancel(this::cancel));
+        this(parent, parent.map((p) -> p.dispatch).orElse(CancellationDispatch.inline()));
+    }
+
+    Life(final Optional<Life> parent, final CancellationDispatch dispatch) {
+        final Life p = parent.orElse(null);
+        this.parent = p;
+        this.dispatch = Objects.requireNonNull(dispatch, "dispatch");
+        if (p != null) {
+            if (p.hasDeadline) {
+                this.deadline = p.deadline;
+                this.lazy = p.lazy;
+                this.inherited = true;
+                this.hasDeadline = true;
+            }
+            this.registration = p.addChild(this);
+        }
+        else {
+            this.registration = null;
+        }
     }
 
     void cancel() {
+        cancel(CancellationCause.CANCELLED);
+    }
+
+    void cancel(final CancellationCause why) {
+        Objects.requireNonNull(why, "cause");
+        if (!this.cause.compareAndSet(null, why)) {
+            return;
+        }
+
+        // release the timer now rather than leaving it queued until the deadline
+        this.timer.dispose();
+
+        // and leave the parent, which may well outlive this
+        if (this.registration != null) {
+            this.registration.node.dispose();
+            updateHolding();
+        }
+
+        final Listener top = this.listeners.getAndSet(CLOSED);
+        final List<Listener> stack = new ArrayList<>();
+        for (Listener l = top; l != null; l = l.next) {
+            stack.add(l);
+        }
+
+        // children inline, so the whole subtree is cancelled when this returns
+        final List<Listener> callbacks = new ArrayList<>(stack.size());
+        for (int i = stack.size() - 1; i >= 0; i--) {
+            final Listener l = stack.get(i);
+            if (l.disposed == 0) {
+                if (l.action instanceof ChildRef) {
+                    l.action.run();
+                }
+                else {
+                    callbacks.add(l);
+                }
+            }
+        }
+        if (!callbacks.isEmpty()) {
+            this.dispatch.dispatch(callbacks);
+        }
+    }
+
+    /**
+     * Children are cancelled along with their parent, but unlike listeners they do not arm a deadline.
+     * The parent only holds a weak reference to a child, so that a long lived parent does not keep
+     * every child it ever had reachable; the registration of a collected child is disposed the next
+     * time a child is added to any life.
+     */
+    private ChildRef addChild(final Life child) {
+        expungeCollected();
+
+        final ChildRef ref = new ChildRef(child);
+        ref.node = new Listener(this, ref);
+        if (isCancelled() || push(ref.node) == null) {
+            child.cancel(this.cause.get());
+        }
+        return ref;
+    }
+
+    private static void expungeCollected() {
+        Reference<? extends Life> ref;
+        while ((ref = COLLECTED.poll()) != null) {
+            ((ChildRef) ref).node.dispose();
+        }
+    }
+
+    void startTimeout(final long time, final TimeUnit unit, final ScheduledExecutorService scheduler) {
         this.lock.lock();
         try {
-            if (this.state.get() == State.ALIVE) {
-                this.state.set(State.CANCELLED);
-                this.cancelListeners.forEach(Runnable::run);
-                this.cancelListeners.clear();
+            if (!setDeadline(time, unit, false)) {
+                return;
             }
+            final ScheduledFuture<?> future = scheduler.schedule(this::timedOut, time, unit);
+            setTimer(() -> future.cancel(false));
         } finally {
             this.lock.unlock();
         }
     }
 
-    void startTimeout(final long time, final TimeUnit unit, final ScheduledExecutorService scheduler) {
+    /**
+     * Starts a timeout in deadline mode: nothing is scheduled until a cancel listener is registered
+     * on this life or on a descendant.
+     */
+    void startTimeout(final long time, final TimeUnit unit, final TimerWheel wheel) {
         this.lock.lock();
         try {
-            final ScheduledFuture<?> future = scheduler.schedule(this::cancel, time, unit);
-
-            final ChronoUnit cronut = chronoUnit(unit);
-            final Timeout t = new TimeoutBuilder().future(future).finishAt(Instant.now().plus(time, cronut)).build();
-            final Timeout old = this.timeout.get();
-            this.timeout.set(t);
-
-            // try to cancel as we are replacing the timeout, best effort
-            if (old != null) {
-                old.future().cancel(false);
+            if (!setDeadline(time, unit, true)) {
+                return;
+            }
+            this.wheel = wheel;
+            this.armed = false;
+            if (this.listened) {
+                armTimer();
             }
         } finally {
             this.lock.unlock();
         }
     }
 
+    /**
+     * @return false if the new deadline is no earlier than an inherited one, in which case it is
+     * ignored and no timer is needed.
+     */
+    private boolean setDeadline(final long time, final TimeUnit unit, final boolean lazy) {
+        // capped so that very long timeouts cannot overflow into the past
+        final long next = System.nanoTime() + Math.min(unit.toNanos(time), MAX_TIMEOUT_NANOS);
+        if (this.inherited && next - this.deadline >= 0) {
+            return false;
+        }
+
+        // replacing any earlier timeout
+        this.timer.dispose();
+        this.timer = NOT_ARMED;
+        this.wheel = null;
+        this.inherited = false;
+
+        this.deadline = next;
+        this.lazy = lazy;
+        this.hasDeadline = true;
+        return true;
+    }
+
+    /**
+     * Publishes a timer, disposing it straight away if the life was cancelled meanwhile, as cancel
+     * might have read the previous one.
+     */
+    private void setTimer(final Disposable t) {
+        this.timer = t;
+        if (this.cause.get() != null) {
+            t.dispose();
+        }
+    }
+
     Optional<Duration> timeRemaining() {
+        if (!this.hasDeadline) {
+            return Optional.empty();
+        }
+        return Optional.of(Duration.ofNanos(this.deadline - System.nanoTime()));
+    }
+
+    /**
+     * @return nanoseconds until the deadline, zero once it has passed, or {@link Long#MAX_VALUE} if
+     * there is no deadline.
+     */
+    long remainingNanos() {
+        if (!this.hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, this.deadline - System.nanoTime());
+    }
+
+    boolean isCancelled() {
+        if (this.cause.get() != null) {
+            return true;
+        }
+        if (expired()) {
+            timedOut();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return why the life was cancelled, or null if it has not been.
+     */
+    CancellationCause cancellationCause() {
+        return isCancelled() ? this.cause.get() : null;
+    }
+
+    private void timedOut() {
+        cancel(CancellationCause.TIMEOUT);
+    }
+
+    /**
+     * @return true if a deadline on this life or an ancestor, which has not been pushed down by a
+     * timer, has passed.
+     */
+    private boolean expired() {
+        return this.lazy && System.nanoTime() - this.deadline >= 0;
+    }
+
+    /**
+     * Counts a listener or holding child. The first one schedules the timer for a deadline, so that
+     * listeners are called back when it passes, and has the parent hold this life strongly. The
+     * ancestors are held as well, as their deadlines and cancellation reach the listeners through them.
+     */
+    private void hold() {
+        if (this.registration == null) {
+            armRoot();
+            return;
+        }
+        if (this.holds.getAndIncrement() == 0) {
+            updateHolding();
+        }
+    }
+
+    /**
+     * Nothing holds a root, so its listeners are not counted, and it stays listened once armed.
+     */
+    private void armRoot() {
+        if (this.listened) {
+            return;
+        }
         this.lock.lock();
         try {
-            final Timeout t = this.timeout.get();
-            if (t == null) {
-                return Optional.empty();
-            }
-            else {
-                return Optional.of(Duration.between(Instant.now(), t.finishAt()));
+            if (!this.listened && this.cause.get() == null) {
+                this.listened = true;
+                armTimer();
             }
         } finally {
             this.lock.unlock();
         }
     }
 
-    boolean isCancelled() {
-        return this.state.get() == State.CANCELLED;
+    /**
+     * Drops a listener or holding child, and with the last one the hold on the parent.
+     */
+    private void release() {
+        if (this.registration == null) {
+            return;
+        }
+        if (this.holds.decrementAndGet() == 0) {
+            updateHolding();
+        }
+    }
+
+    /**
+     * Holds the parent while this life is alive and held itself, and releases it otherwise. Called after
+     * every change to either. The first caller does the work, and goes round again for as many calls as
+     * came in meanwhile, so the last round sees the latest state and the parent's count changes from
+     * one thread at a time.
+     */
+    private void updateHolding() {
+        if (this.holdingUpdates.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            final boolean hold = this.holds.get() > 0 && this.cause.get() == null;
+            if (hold != this.listened) {
+                this.listened = hold;
+                this.registration.pinned = hold ? this : null;
+                if (hold) {
+                    this.parent.hold();
+                    armOwnTimer();
+                }
+                else {
+                    this.parent.release();
+                }
+            }
+            missed = this.holdingUpdates.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Arms the timer for a deadline of this life's own once it is held. Only a life with a timeout
+     * locks, and startTimeout arms the timer instead if it sets the deadline after listened was set.
+     * A timer stays armed once nothing listens, it only holds this life until the deadline.
+     */
+    private void armOwnTimer() {
+        if (this.wheel == null) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            armTimer();
+        } finally {
+            this.lock.unlock();
+        }
+    }
 
+    private void armTimer() {
+        if (this.wheel != null && !this.armed && this.cause.get() == null) {
+            this.armed = true;
+            final long remaining = Math.max(0, this.deadline - System.nanoTime());
+            setTimer(this.wheel.schedule(this::timedOut, remaining, TimeUnit.NANOSECONDS));
+        }
     }
 
     Disposable onCancel(final Runnable runnable) {
-        if (isCancelled()) {
+        final Listener listener;
+        if (isCancelled() || (listener = push(new Listener(this, runnable))) == null) {
             runnable.run();
             return () -> {};
         }
+        hold();
+        return listener;
+    }
+
+    /**
+     * @return a new stage which completes with the cause once this life is cancelled.
+     */
+    CompletionStage<CancellationCause> whenCancelled() {
+        CompletableFuture<CancellationCause> source = this.whenCancelled;
+        if (source == null) {
+            final CompletableFuture<CancellationCause> created = new CompletableFuture<>();
+            if (WHEN_CANCELLED.compareAndSet(this, null, created)) {
+                onCancel(() -> created.complete(this.cause.get()));
+            }
+            source = this.whenCancelled;
+        }
+        // the source is shared, callers only ever see a stage of their own depending on it
+        return source.thenApply(Function.identity());
+    }
 
-        this.lock.lock();
-        try {
-            this.cancelListeners.add(runnable);
+    /**
+     * @return the listener, or null if the life has been cancelled and it was not added.
+     */
+    private Listener push(final Listener listener) {
+        Listener top;
+        do {
+            top = this.listeners.get();
+            if (top == CLOSED) {
+                return null;
+            }
+            Listener next = top;
+            while (next != null && next.disposed != 0) {
+                next = next.next;
+            }
+            listener.next = next;
+        } while (!this.listeners.compareAndSet(top, listener));
+        return listener;
+    }
+
+    private void disposed() {
+        if (this.disposals.incrementAndGet() > Math.max(SWEEP_THRESHOLD, this.liveAtLastSweep)) {
+            sweep();
         }
-        finally {
-            this.lock.unlock();
+    }
+
+    /**
+     * Unlinks tombstones below the top of the stack. Registrations only ever swap the top, and
+     * cancel skips tombstones, so neither conflicts with the unlinking; concurrent sweeps are
+     * excluded by a flag.
+     */
+    private void sweep() {
+        if (!this.sweeping.compareAndSet(false, true)) {
+            return;
         }
-        return () -> {
-            this.lock.lock();
-            try {
-                this.cancelListeners.remove(runnable);
+        try {
+            final int seen = this.disposals.get();
+            final Listener top = this.listeners.get();
+            if (top == null || top == CLOSED) {
+                return;
             }
-            finally {
-                this.lock.unlock();
+            int live = 1;
+            Listener prev = top;
+            for (Listener l = top.next; l != null; l = l.next) {
+                if (l.disposed != 0) {
+                    prev.next = l.next;
+                }
+                else {
+                    prev = l;
+                    live++;
+                }
             }
-        };
+            this.liveAtLastSweep = live;
+            this.disposals.addAndGet(-seen);
+        } finally {
+            this.sweeping.set(false);
+        }
     }
 
-    private enum State {
-        ALIVE, CANCELLED
-    }
+    /**
+     * A child's registration with its parent: the action of a node on the parent's listener stack.
+     */
+    private static final class ChildRef extends WeakReference<Life> implements Runnable {
+        private Listener node;
+
+        /**
+         * Set while the child holds its parent, see {@link #hold()}.
+         */
+        private volatile Life pinned;
 
-    @Value.Immutable
-    @Value.Style(visibility = Value.Style.ImplementationVisibility.PRIVATE)
-    abstract static class Timeout {
-        abstract Temporal finishAt();
+        ChildRef(final Life child) {
+            super(child, COLLECTED);
+        }
 
-        abstract ScheduledFuture<?> future();
+        @Override
+        public void run() {
+            final Life strong = this.pinned;
+            final Life child = strong != null ? strong : get();
+            if (child != null) {
+                // the parent's cause
+                child.cancel(this.node.life.cause.get());
+            }
+        }
     }
 
     /**
-     * Converts a {@code TimeUnit} to a {@code ChronoUnit}.
-     * <p>
-     * This handles the seven units declared in {@code TimeUnit}.
-     *
-     * @param unit  the unit to convert, not null
-     * @return the converted unit, not null
-     */
-    private static ChronoUnit chronoUnit(final TimeUnit unit) {
-        Objects.requireNonNull(unit, "unit");
-        switch (unit) {
-            case NANOSECONDS:
-                return ChronoUnit.NANOS;
-            case MICROSECONDS:
-                return ChronoUnit.MICROS;
-            case MILLISECONDS:
-                return ChronoUnit.MILLIS;
-            case SECONDS:
-                return ChronoUnit.SECONDS;
-            case MINUTES:
-                return ChronoUnit.MINUTES;
-            case HOURS:
-                return ChronoUnit.HOURS;
-            case DAYS:
-                return ChronoUnit.DAYS;
-            default:
-                throw new IllegalArgumentException("Unknown TimeUnit constant");
+     * A node on the listener stack, and the handle for disposing it.
+     */
+    private static final class Listener implements Disposable, Runnable {
+        private static final AtomicIntegerFieldUpdater<Listener> DISPOSED =
+                AtomicIntegerFieldUpdater.newUpdater(Listener.class, "disposed");
+
+        private final Life life;
+        private final Runnable action;
+        private volatile Listener next;
+        private volatile int disposed;
+
+        Listener(final Life life, final Runnable action) {
+            this.life = life;
+            this.action = action;
+        }
+
+        @Override
+        public void dispose() {
+            if (DISPOSED.compareAndSet(this, 0, 1)) {
+                this.life.disposed();
+                if (!(this.action instanceof ChildRef)) {
+                    this.life.release();
+                }
+            }
         }
-    }
 
+        /**
+         * Runs the action, isolating the other listeners from anything it throws.
+         */
+        @Override
+        public void run() {
+            if (this.disposed != 0) {
+                return;
+            }
+            try {
+                this.action.run();
+            }
+            catch (Throwable e) {
+                final Thread t = Thread.currentThread();
+                t.getUncaughtExceptionHandler().uncaughtException(t, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Implements {@link Ctx#propagate(Object)}.
+ * <p>
+ * How to wrap an object is decided once per class and cached. A class which implements exactly one of
+ * the common functional interfaces, as a lambda does, is wrapped in a plain lambda of the same
+ * interface, so calls are direct and nothing is boxed or allocated. Anything else gets a dynamic
+ * proxy, but the proxy constructor is looked up once, and calls attach the context directly rather
+ * than through a Callable. Implementing the interface with an adapted method handle instead, through
+ * {@link java.lang.invoke.MethodHandleProxies} or a proxy calling a spreading handle, was slower and
+ * allocated the argument array on every call, see {@code PropagateBenchmark}.
+ */
+final class Propagation {
+
+    @FunctionalInterface
+    private interface Wrapper {
+        Object wrap(Ctx ctx, Object target);
+    }
+
+    private static final ClassValue<Wrapper> WRAPPERS = new ClassValue<Wrapper>() {
+        @Override
+        protected Wrapper computeValue(final Class<?> type) {
+            return wrapperFor(type);
+        }
+    };
+
+    private Propagation() {
+    }
+
+    static Object wrap(final Ctx ctx, final Object target) {
+        return WRAPPERS.get(target.getClass()).wrap(ctx, target);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Wrapper wrapperFor(final Class<?> type) {
+        final Class<?>[] interfaces = type.getInterfaces();
+        if (interfaces.length == 1) {
+            final Class<?> fi = interfaces[0];
+            if (fi == Runnable.class) {
+                return (ctx, t) -> ctx.propagate((Runnable) t);
+            }
+            if (fi == Callable.class) {
+                return (ctx, t) -> ctx.propagate((Callable<?>) t);
+            }
+            if (fi == Function.class) {
+                return (ctx, t) -> function(ctx, (Function<Object, Object>) t);
+            }
+            if (fi == UnaryOperator.class) {
+                return (ctx, t) -> unaryOperator(ctx, (UnaryOperator<Object>) t);
+            }
+            if (fi == BiFunction.class) {
+                return (ctx, t) -> biFunction(ctx, (BiFunction<Object, Object, Object>) t);
+            }
+            if (fi == Supplier.class) {
+                return (ctx, t) -> supplier(ctx, (Supplier<Object>) t);
+            }
+            if (fi == Consumer.class) {
+                return (ctx, t) -> consumer(ctx, (Consumer<Object>) t);
+            }
+            if (fi == BiConsumer.class) {
+                return (ctx, t) -> biConsumer(ctx, (BiConsumer<Object, Object>) t);
+            }
+            if (fi == Predicate.class) {
+                return (ctx, t) -> predicate(ctx, (Predicate<Object>) t);
+            }
+        }
+        return proxy(type, interfaces);
+    }
+
+    private static <T, R> Function<T, R> function(final Ctx ctx, final Function<T, R> f) {
+        return (t) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                return f.apply(t);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    private static <T> UnaryOperator<T> unaryOperator(final Ctx ctx, final UnaryOperator<T> f) {
+        return (t) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                return f.apply(t);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    private static <T, U, R> BiFunction<T, U, R> biFunction(final Ctx ctx, final BiFunction<T, U, R> f) {
+        return (t, u) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                return f.apply(t, u);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    private static <T> Supplier<T> supplier(final Ctx ctx, final Supplier<T> s) {
+        return () -> {
+            final Ctx previous = ctx.enter();
+            try {
+                return s.get();
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    private static <T> Consumer<T> consumer(final Ctx ctx, final Consumer<T> c) {
+        return (t) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                c.accept(t);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    private static <T, U> BiConsumer<T, U> biConsumer(final Ctx ctx, final BiConsumer<T, U> c) {
+        return (t, u) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                c.accept(t, u);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    private static <T> Predicate<T> predicate(final Ctx ctx, final Predicate<T> p) {
+        return (t) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                return p.test(t);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Wrapper proxy(final Class<?> type, final Class<?>[] interfaces) {
+        final Constructor<?> constructor;
+        try {
+            constructor = Proxy.getProxyClass(type.getClassLoader(), interfaces)
+                               .getConstructor(InvocationHandler.class);
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Proxy class without an InvocationHandler constructor", e);
+        }
+        return (ctx, target) -> {
+            try {
+                return constructor.newInstance(new Handler(ctx, target));
+            }
+            catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create propagating proxy for " + type, e);
+            }
+        };
+    }
+
+    private static final class Handler implements InvocationHandler {
+        private final Ctx ctx;
+        private final Object target;
+
+        Handler(final Ctx ctx, final Object target) {
+            this.ctx = ctx;
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final Ctx previous = this.ctx.enter();
+            try {
+                return method.invoke(this.target, args);
+            }
+            catch (InvocationTargetException e) {
+                // throw what the target threw, not the reflection wrapper
+                throw e.getCause();
+            }
+            finally {
+                this.ctx.exit(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Scoped attachment backend for {@link Ctx#runAttached(Runnable)} and {@link Ctx#callAttached(Callable)},
+ * built on {@code java.lang.ScopedValue}.
+ * <p>
+ * Scoped values need JDK 25, so this base version is never enabled, and runs blocks with the context
+ * attached through the selected {@link CtxStorage} instead. The jar is multi-release and carries the
+ * scoped implementation under {@code META-INF/versions/25}.
+ */
+final class ScopedAttachment {
+
+    static final boolean ENABLED = available();
+
+    private ScopedAttachment() {
+    }
+
+    /**
+     * Initializing {@link #ENABLED} from a call keeps it from being a compile time constant. A constant
+     * false would be inlined by javac into {@link Ctx}, and the JDK 25 version of this class, which
+     * replaces this one at runtime, could then never turn scoped attachment on.
+     */
+    private static boolean available() {
+        return false;
+    }
+
+    /**
+     * @return the holder bound by the innermost enclosing scoped block, or null.
+     */
+    static Ctx.Attachment current() {
+        return null;
+    }
+
+    static void run(final Ctx ctx, final Runnable r) {
+        final Ctx previous = ctx.enter();
+        try {
+            r.run();
+        } finally {
+            ctx.exit(previous);
+        }
+    }
+
+    static <T> T call(final Ctx ctx, final Callable<T> c) throws Exception {
+        final Ctx previous = ctx.enter();
+        try {
+            return c.call();
+        } finally {
+            ctx.exit(previous);
+        }
+    }
+}
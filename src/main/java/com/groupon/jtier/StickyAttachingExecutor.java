@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed size pool which propagates attached contexts like {@link AttachingExecutor}, but leaves a
+ * context attached to the worker between consecutive tasks which carry the same context.
+ * <p>
+ * Before a task runs, its context is attached unless it is already attached to the worker; nothing is
+ * detached after it runs. A worker only detaches when it finds the queue empty and is about to block,
+ * so attach and detach listeners fire once per run of same-context tasks instead of once per task, and
+ * an idle worker never holds on to a context.
+ */
+class StickyAttachingExecutor extends ThreadPoolExecutor {
+
+    StickyAttachingExecutor(final int threads, final ThreadFactory threadFactory) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new DetachingQueue(), threadFactory);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        super.execute(new Task(Ctx.currentOrNull(), command));
+    }
+
+    @Override
+    protected void beforeExecute(final Thread t, final Runnable r) {
+        final Ctx ctx = ((Task) r).ctx;
+        if (Ctx.currentOrNull() == ctx) {
+            return;
+        }
+        if (ctx == null) {
+            Ctx.cleanThread();
+        }
+        else {
+            ctx.attachToThread();
+        }
+    }
+
+    /**
+     * Work queue which detaches the worker's context before the worker blocks waiting for a task.
+     */
+    private static final class DetachingQueue extends LinkedBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            final Runnable next = poll();
+            if (next != null) {
+                return next;
+            }
+            Ctx.cleanThread();
+            return super.take();
+        }
+    }
+
+    private static final class Task implements Runnable {
+        private final Ctx ctx;
+        private final Runnable command;
+
+        Task(final Ctx ctx, final Runnable command) {
+            this.ctx = ctx;
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            this.command.run();
+        }
+    }
+}
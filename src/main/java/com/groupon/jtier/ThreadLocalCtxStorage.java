@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+/**
+ * The default {@link CtxStorage}, backed by a {@link ThreadLocal}.
+ * <p>
+ * Each thread gets one holder, created on first use and mutated on attach and detach, so neither
+ * touches the thread local map again nor allocates.
+ */
+public final class ThreadLocalCtxStorage implements CtxStorage {
+
+    private final ThreadLocal<Holder> attached = ThreadLocal.withInitial(Holder::new);
+
+    @Override
+    public Ctx get() {
+        return this.attached.get().ctx;
+    }
+
+    @Override
+    public void set(final Ctx ctx) {
+        this.attached.get().ctx = ctx;
+    }
+
+    private static final class Holder {
+        private Ctx ctx;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel, the default scheduler for {@link Ctx#withTimeout(long, TimeUnit)}.
+ * <p>
+ * Timeouts are nearly always cancelled long before they fire, so scheduling and cancelling are both
+ * O(1) and lock free: {@link #schedule(Runnable, long, TimeUnit)} appends to a concurrent queue, and
+ * {@link Disposable#dispose()} is a single CAS on the returned handle. One worker thread owns the wheel.
+ * Every tick it moves newly scheduled entries into their buckets, then walks the current bucket,
+ * unlinking cancelled entries and firing the ones that are due. A cancelled entry is therefore
+ * released within one revolution of the wheel. Deadlines further away than one revolution wait out
+ * the extra rounds in their bucket. Timeouts fire up to one tick late, never early.
+ * <p>
+ * The worker is started on first use and parks without ticking while nothing is scheduled.
+ */
+final class TimerWheel {
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final ThreadFactory threadFactory;
+
+    private static final AtomicIntegerFieldUpdater<TimerWheel> IDLE = AtomicIntegerFieldUpdater.newUpdater(TimerWheel.class, "idle");
+
+    private final Queue<Entry> incoming = new ConcurrentLinkedQueue<>();
+    private final LongAdder pending = new LongAdder();
+    private final AtomicReference<Thread> worker = new AtomicReference<>();
+    private volatile int idle;
+
+    /**
+     * Worker thread only: the start of the wheel's time base, the current tick, and the number of
+     * entries linked into buckets.
+     */
+    private long startTime;
+    private long tick;
+    private long bucketed;
+
+    TimerWheel(final long tick, final TimeUnit unit, final int wheelSize, final ThreadFactory threadFactory) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize must be a power of two: " + wheelSize);
+        }
+        this.tickNanos = unit.toNanos(tick);
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            this.wheel[i] = new Bucket();
+        }
+        this.mask = wheelSize - 1;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Runs the task on the wheel's worker thread once the delay has elapsed, unless the returned
+     * handle is disposed first.
+     */
+    Disposable schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        final long nanos = Math.min(unit.toNanos(delay), Long.MAX_VALUE >> 1);
+        final Entry entry = new Entry(this, task, System.nanoTime() + nanos);
+        this.pending.increment();
+        this.incoming.add(entry);
+
+        final Thread w = this.worker.get();
+        if (w == null) {
+            start();
+        }
+        else if (this.idle == 1 && IDLE.compareAndSet(this, 1, 0)) {
+            LockSupport.unpark(w);
+        }
+        return entry;
+    }
+
+    /**
+     * @return the number of scheduled entries which have neither fired nor been cancelled.
+     */
+    long pending() {
+        return this.pending.sum();
+    }
+
+    /**
+     * For tests: the number of entries the wheel still holds, queued or in a bucket, whether or not they
+     * were cancelled. It is counted by a task with no delay, which reads the worker's own count on the
+     * worker thread, and is not counted itself.
+     */
+    long retained() throws InterruptedException, ExecutionException, TimeoutException {
+        final CompletableFuture<Long> count = new CompletableFuture<>();
+        schedule(() -> count.complete(this.bucketed + this.incoming.size()), 0, TimeUnit.NANOSECONDS);
+        return count.get(1, TimeUnit.SECONDS);
+    }
+
+    private void start() {
+        final Thread t = this.threadFactory.newThread(this::run);
+        if (this.worker.compareAndSet(null, t)) {
+            t.start();
+        }
+    }
+
+    private void run() {
+        this.startTime = System.nanoTime();
+        this.tick = 0;
+        while (true) {
+            if (this.pending.sum() == 0 && this.incoming.isEmpty()) {
+                parkUntilScheduled();
+                continue;
+            }
+            sleepUntilNextTick();
+            transferIncoming();
+            expire(this.wheel[(int) (this.tick & this.mask)]);
+            this.tick++;
+        }
+    }
+
+    private void parkUntilScheduled() {
+        // whatever is left in the buckets was cancelled, drop it before sleeping
+        for (Bucket bucket : this.wheel) {
+            bucket.clear();
+        }
+        this.bucketed = 0;
+        this.idle = 1;
+        while (this.incoming.isEmpty()) {
+            LockSupport.park(this);
+        }
+        this.idle = 0;
+        // nothing is in any bucket, so ticks spent parked can be skipped
+        this.tick = Math.max(this.tick, (System.nanoTime() - this.startTime) / this.tickNanos);
+    }
+
+    private void sleepUntilNextTick() {
+        final long deadline = this.startTime + (this.tick + 1) * this.tickNanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    private void transferIncoming() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            final Entry entry = this.incoming.poll();
+            if (entry == null) {
+                return;
+            }
+            if (entry.state != Entry.PENDING) {
+                continue;
+            }
+            final long due = Math.max(0, entry.deadline - this.startTime) / this.tickNanos;
+            final long ticks = Math.max(due, this.tick);
+            entry.remainingRounds = (ticks - this.tick) / this.wheel.length;
+            this.wheel[(int) (ticks & this.mask)].add(entry);
+            this.bucketed++;
+        }
+    }
+
+    private void expire(final Bucket bucket) {
+        Entry entry = bucket.head;
+        while (entry != null) {
+            final Entry next = entry.next;
+            if (entry.state == Entry.CANCELLED) {
+                bucket.remove(entry);
+                this.bucketed--;
+            }
+            else if (entry.remainingRounds <= 0) {
+                bucket.remove(entry);
+                this.bucketed--;
+                if (Entry.STATE.compareAndSet(entry, Entry.PENDING, Entry.EXPIRED)) {
+                    this.pending.decrement();
+                    fire(entry.task);
+                }
+            }
+            else {
+                entry.remainingRounds--;
+            }
+            entry = next;
+        }
+    }
+
+    private static void fire(final Runnable task) {
+        try {
+            task.run();
+        }
+        catch (Throwable e) {
+            final Thread t = Thread.currentThread();
+            t.getUncaughtExceptionHandler().uncaughtException(t, e);
+        }
+    }
+
+    /**
+     * Doubly linked list of entries, only touched by the worker thread.
+     */
+    private static final class Bucket {
+        private Entry head;
+        private Entry tail;
+
+        void add(final Entry entry) {
+            if (this.head == null) {
+                this.head = entry;
+                this.tail = entry;
+            }
+            else {
+                this.tail.next = entry;
+                entry.prev = this.tail;
+                this.tail = entry;
+            }
+        }
+
+        void remove(final Entry entry) {
+            if (entry.prev != null) {
+                entry.prev.next = entry.next;
+            }
+            else {
+                this.head = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.prev = entry.prev;
+            }
+            else {
+                this.tail = entry.prev;
+            }
+            entry.prev = null;
+            entry.next = null;
+        }
+
+        void clear() {
+            this.head = null;
+            this.tail = null;
+        }
+    }
+
+    /**
+     * A scheduled task, and the handle returned for cancelling it.
+     */
+    private static final class Entry implements Disposable {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        static final AtomicIntegerFieldUpdater<Entry> STATE = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = PENDING;
+
+        // worker thread only
+        private long remainingRounds;
+        private Entry prev;
+        private Entry next;
+
+        Entry(final TimerWheel wheel, final Runnable task, final long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void dispose() {
+            if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                this.wheel.pending.decrement();
+            }
+        }
+    }
+}
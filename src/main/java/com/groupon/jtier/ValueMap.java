@@ -0,0 +1,310 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Persistent (immutable, structurally shared) map from {@link Ctx.Key} to value, used as the value
+ * store of a {@link Ctx}.
+ * <p>
+ * Every key is interned and owns a dense integer slot (see {@link Ctx#key(String, Class)}), so this
+ * is a bitmap-compressed radix trie over slots: each level consumes five bits of the slot, and a
+ * node's array only holds the populated branches. Contexts with keys in the first 32 slots resolve
+ * a lookup with one bitmap test and one array load, and keys are compared by identity, never hashed.
+ * Adding a value copies only the nodes on the path to that slot, so {@link #with(Ctx.Key, Object)}
+ * is O(log32 n) and every earlier map remains valid and unchanged.
+ */
+final class ValueMap {
+
+    static final ValueMap EMPTY = new ValueMap(Node.EMPTY, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    /**
+     * Marker returned by lookups when a key is absent, as null is a legal value.
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    private final Node root;
+    private final int size;
+
+    private ValueMap(final Node root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    boolean containsKey(final Ctx.Key<?> key) {
+        return lookup(key) != NOT_FOUND;
+    }
+
+    /**
+     * @return the value for the key, or null if the key is not present.
+     */
+    Object get(final Ctx.Key<?> key) {
+        final Object value = lookup(key);
+        return value == NOT_FOUND ? null : value;
+    }
+
+    private Object lookup(final Ctx.Key<?> key) {
+        final int slot = key.slot;
+        Node node = this.root;
+        for (int shift = 0; ; shift += BITS) {
+            final int bit = bit(slot, shift);
+            if ((node.bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            final int idx = node.index(bit) << 1;
+            final Object k = node.array[idx];
+            if (k == key) {
+                return node.array[idx + 1];
+            }
+            if (k != null) {
+                return NOT_FOUND;
+            }
+            node = (Node) node.array[idx + 1];
+        }
+    }
+
+    /**
+     * @return a map with the given mapping added, or replaced if the key was already present.
+     */
+    ValueMap with(final Ctx.Key<?> key, final Object value) {
+        final boolean replacing = containsKey(key);
+        final Node next = this.root.assoc(0, key, value);
+        if (next == this.root) {
+            return this;
+        }
+        return new ValueMap(next, replacing ? this.size : this.size + 1);
+    }
+
+    /**
+     * @return a map with all the given mappings added, as if by successive calls to
+     * {@link #with(Ctx.Key, Object)} in array order (a later value for the same key wins), but copying
+     * each affected node only once.
+     */
+    ValueMap withAll(final Ctx.Key<?>[] keys, final Object[] values, final int count) {
+        if (count == 0) {
+            return this;
+        }
+        if (count == 1) {
+            return with(keys[0], values[0]);
+        }
+
+        // order the entries the way the trie lays them out, so each branch's entries are contiguous
+        final long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (trieOrder(keys[i].slot) << 24) | i;
+        }
+        Arrays.sort(order);
+
+        final Ctx.Key<?>[] sortedKeys = new Ctx.Key<?>[count];
+        final Object[] sortedValues = new Object[count];
+        int n = 0;
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            final int idx = (int) (order[i] & 0xffffff);
+            if (n > 0 && sortedKeys[n - 1] == keys[idx]) {
+                sortedValues[n - 1] = values[idx];
+                continue;
+            }
+            sortedKeys[n] = keys[idx];
+            sortedValues[n] = values[idx];
+            if (!containsKey(keys[idx])) {
+                added++;
+            }
+            n++;
+        }
+        return new ValueMap(this.root.merge(0, sortedKeys, sortedValues, 0, n), this.size + added);
+    }
+
+    /**
+     * The slot with its five bit chunks reversed, least significant chunk first, so that sorting by it
+     * groups slots by trie branch at every level.
+     */
+    private static long trieOrder(final int slot) {
+        long order = 0;
+        for (int shift = 0; shift < 32; shift += BITS) {
+            order = (order << BITS) | ((slot >>> shift) & MASK);
+        }
+        return order;
+    }
+
+    void forEach(final BiConsumer<Ctx.Key<?>, Object> action) {
+        this.root.forEach(action);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final ValueMap that = (ValueMap) o;
+        if (this.size != that.size) {
+            return false;
+        }
+        final boolean[] equal = {true};
+        this.root.forEach((k, v) -> {
+            if (equal[0]) {
+                final Object other = that.lookup(k);
+                equal[0] = other != NOT_FOUND && (v == null ? other == null : v.equals(other));
+            }
+        });
+        return equal[0];
+    }
+
+    /**
+     * Same contract as {@link java.util.Map#hashCode()}.
+     */
+    @Override
+    public int hashCode() {
+        final int[] hash = {0};
+        this.root.forEach((k, v) -> hash[0] += k.hashCode() ^ (v == null ? 0 : v.hashCode()));
+        return hash[0];
+    }
+
+    private static int bit(final int slot, final int shift) {
+        return 1 << ((slot >>> shift) & MASK);
+    }
+
+    /**
+     * Trie node. The array holds a key/value pair per populated branch; a null key means the
+     * value slot holds a child node.
+     */
+    private static final class Node {
+        static final Node EMPTY = new Node(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        Node(final int bitmap, final Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        int index(final int bit) {
+            return Integer.bitCount(this.bitmap & (bit - 1));
+        }
+
+        Node assoc(final int shift, final Ctx.Key<?> key, final Object value) {
+            final int bit = bit(key.slot, shift);
+            final int idx = index(bit) << 1;
+            if ((this.bitmap & bit) == 0) {
+                final Object[] next = new Object[this.array.length + 2];
+                System.arraycopy(this.array, 0, next, 0, idx);
+                next[idx] = key;
+                next[idx + 1] = value;
+                System.arraycopy(this.array, idx, next, idx + 2, this.array.length - idx);
+                return new Node(this.bitmap | bit, next);
+            }
+
+            final Object k = this.array[idx];
+            final Object v = this.array[idx + 1];
+            if (k == null) {
+                final Node child = ((Node) v).assoc(shift + BITS, key, value);
+                return child == v ? this : replace(idx + 1, child);
+            }
+            if (k == key) {
+                return v == value ? this : replace(idx + 1, value);
+            }
+
+            // two distinct slots always diverge at some deeper level
+            final Node split = EMPTY.assoc(shift + BITS, (Ctx.Key<?>) k, v).assoc(shift + BITS, key, value);
+            final Object[] next = this.array.clone();
+            next[idx] = null;
+            next[idx + 1] = split;
+            return new Node(this.bitmap, next);
+        }
+
+        /**
+         * Adds the entries in [from, to), which are sorted by {@link #trieOrder(int)} and all fall
+         * under this node, building each new node once.
+         */
+        Node merge(final int shift, final Ctx.Key<?>[] keys, final Object[] values, final int from, final int to) {
+            int bitmap = this.bitmap;
+            for (int i = from; i < to; i++) {
+                bitmap |= bit(keys[i].slot, shift);
+            }
+            final Object[] next = new Object[Integer.bitCount(bitmap) << 1];
+            int group = from;
+            int out = 0;
+            for (int remaining = bitmap; remaining != 0; remaining &= remaining - 1, out += 2) {
+                final int bit = remaining & -remaining;
+                int end = group;
+                while (end < to && bit(keys[end].slot, shift) == bit) {
+                    end++;
+                }
+
+                if ((this.bitmap & bit) == 0) {
+                    if (end - group == 1) {
+                        next[out] = keys[group];
+                        next[out + 1] = values[group];
+                    }
+                    else {
+                        next[out + 1] = EMPTY.merge(shift + BITS, keys, values, group, end);
+                    }
+                }
+                else {
+                    final int idx = index(bit) << 1;
+                    final Object k = this.array[idx];
+                    final Object v = this.array[idx + 1];
+                    if (group == end) {
+                        next[out] = k;
+                        next[out + 1] = v;
+                    }
+                    else if (k == null) {
+                        next[out + 1] = ((Node) v).merge(shift + BITS, keys, values, group, end);
+                    }
+                    else if (end - group == 1 && keys[group] == k) {
+                        next[out] = k;
+                        next[out + 1] = values[group];
+                    }
+                    else {
+                        next[out + 1] = EMPTY.assoc(shift + BITS, (Ctx.Key<?>) k, v)
+                                             .merge(shift + BITS, keys, values, group, end);
+                    }
+                }
+                group = end;
+            }
+            return new Node(bitmap, next);
+        }
+
+        private Node replace(final int idx, final Object value) {
+            final Object[] next = this.array.clone();
+            next[idx] = value;
+            return new Node(this.bitmap, next);
+        }
+
+        void forEach(final BiConsumer<Ctx.Key<?>, Object> action) {
+            for (int i = 0; i < this.array.length; i += 2) {
+                if (this.array[i] == null) {
+                    ((Node) this.array[i + 1]).forEach(action);
+                }
+                else {
+                    action.accept((Ctx.Key<?>) this.array[i], this.array[i + 1]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.filter;
+
+import com.groupon.jtier.Ctx;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Async context which runs {@link #start(Runnable)} tasks with the request context attached.
+ */
+class AttachingAsyncContext implements AsyncContext {
+
+    private final AsyncContext target;
+    private final Ctx ctx;
+
+    AttachingAsyncContext(final AsyncContext target, final Ctx ctx) {
+        this.target = target;
+        this.ctx = ctx;
+    }
+
+    boolean wraps(final AsyncContext asyncContext) {
+        return this.target == asyncContext;
+    }
+
+    @Override
+    public void start(final Runnable run) {
+        this.target.start(this.ctx.propagate(run));
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+        return this.target.getRequest();
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+        return this.target.getResponse();
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+        return this.target.hasOriginalRequestAndResponse();
+    }
+
+    @Override
+    public void dispatch() {
+        this.target.dispatch();
+    }
+
+    @Override
+    public void dispatch(final String path) {
+        this.target.dispatch(path);
+    }
+
+    @Override
+    public void dispatch(final ServletContext context, final String path) {
+        this.target.dispatch(context, path);
+    }
+
+    @Override
+    public void complete() {
+        this.target.complete();
+    }
+
+    @Override
+    public void addListener(final AsyncListener listener) {
+        this.target.addListener(listener);
+    }
+
+    @Override
+    public void addListener(final AsyncListener listener, final ServletRequest request, final ServletResponse response) {
+        this.target.addListener(listener, request, response);
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(final Class<T> clazz) throws ServletException {
+        return this.target.createListener(clazz);
+    }
+
+    @Override
+    public void setTimeout(final long timeout) {
+        this.target.setTimeout(timeout);
+    }
+
+    @Override
+    public long getTimeout() {
+        return this.target.getTimeout();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.filter;
+
+import com.groupon.jtier.Ctx;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Request passed down the chain by {@link CtxFilter#detachAfterRequest()}, whose async context attaches
+ * the request context to the threads running its {@link AsyncContext#start(Runnable)} tasks. The async
+ * context is wrapped once for each one the container hands out, so repeated calls return the same instance.
+ */
+class AttachingRequest extends HttpServletRequestWrapper {
+
+    private final Ctx ctx;
+    private AttachingAsyncContext asyncContext;
+
+    AttachingRequest(final HttpServletRequest request, final Ctx ctx) {
+        super(request);
+        this.ctx = ctx;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        return wrap(super.startAsync());
+    }
+
+    @Override
+    public AsyncContext startAsync(final ServletRequest request, final ServletResponse response) {
+        return wrap(super.startAsync(request, response));
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        return wrap(super.getAsyncContext());
+    }
+
+    private synchronized AsyncContext wrap(final AsyncContext target) {
+        if (target == null) {
+            return null;
+        }
+        if (this.asyncContext == null || !this.asyncContext.wraps(target)) {
+            this.asyncContext = new AttachingAsyncContext(target, this.ctx);
+        }
+        return this.asyncContext;
+    }
+}
@@ -14,28 +14,53 @@
 package com.groupon.jtier.filter;
 
 import com.groupon.jtier.Ctx;
+import com.groupon.jtier.DeadlineHeader;
+import com.groupon.jtier.KeyCodec;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.servlet.AsyncEvent;
 import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
 
 
 /**
  * Provides a Servlet filter that automatically attaches a context to the current request thread for so that it can
  * be consumed by downstream libraries with {@link Ctx#fromThread()}.
+ * <p>
+ * Request headers are copied into the request context by mappings added with
+ * {@link #extract(String, Ctx.Key, KeyCodec)}. The mappings are compiled when the filter is initialized, and the
+ * values of a request's headers are inserted into its context together, in one copy of the value store.
  *
  * @version 1.0
  */
 public class CtxFilter implements Filter {
 
+    /**
+     * Request attribute holding the request context, in the {@link #detachAfterRequest()} mode.
+     */
+    public static final String CTX_ATTRIBUTE = Ctx.class.getName();
+
+    private static final Extractor<?>[] NO_EXTRACTORS = new Extractor<?>[0];
+
     private final Ctx defaultCtx;
+    private final DeadlineHeader deadlineHeader;
+    private final List<Extractor<?>> mappings = new ArrayList<>();
+
+    /**
+     * The header mappings, fixed by {@link #init(FilterConfig)} or the first request.
+     */
+    private volatile Extractor<?>[] extractors;
+    private volatile boolean detach;
 
     /**
      * Constructor that allows for
@@ -43,7 +68,19 @@ public class CtxFilter implements Filter {
      * @param defaultCtx   The default context to share between requests.
      */
     public CtxFilter(final Ctx defaultCtx) {
+        this(defaultCtx, null);
+    }
+
+    /**
+     * Constructor that also applies the caller's deadline, when the request carries one, as a timeout
+     * on the request context.
+     *
+     * @param defaultCtx       The default context to share between requests.
+     * @param deadlineHeader   The header carrying the caller's remaining time, with its slack and clamping.
+     */
+    public CtxFilter(final Ctx defaultCtx, final DeadlineHeader deadlineHeader) {
         this.defaultCtx = defaultCtx;
+        this.deadlineHeader = deadlineHeader;
     }
 
     /**
@@ -53,8 +90,52 @@ public class CtxFilter implements Filter {
         this(Ctx.empty());
     }
 
+    /**
+     * Copy a request header into the request context, decoded with the codec. A header which is absent,
+     * or which the codec cannot decode, is skipped. Mappings must be added before the filter is initialized.
+     *
+     * @return this filter.
+     * @throws IllegalStateException if the filter has been initialized.
+     */
+    public synchronized <T> CtxFilter extract(final String header, final Ctx.Key<T> key, final KeyCodec<T> codec) {
+        if (this.extractors != null) {
+            throw new IllegalStateException("Header mappings cannot be added once the filter is initialized");
+        }
+        this.mappings.add(new Extractor<>(header, key, codec));
+        return this;
+    }
+
+    /**
+     * Copy a request header into the request context as a string, see {@link #extract(String, Ctx.Key, KeyCodec)}.
+     */
+    public CtxFilter extract(final String header, final Ctx.Key<String> key) {
+        return extract(header, key, KeyCodec.strings());
+    }
+
+    /**
+     * Detach the request context from the container thread whenever the filter returns, so that a pooled
+     * thread never carries one request's context into the next. When an include, forward or error dispatch
+     * of a request returns, the context of the request which dispatched it is attached again. After a new
+     * request or an async dispatch the thread is left with no context, even if one was attached when the
+     * filter ran.
+     * <p>
+     * In this mode the request context is kept in the {@link #CTX_ATTRIBUTE} request attribute. It is
+     * attached again when the filter sees an async dispatch of the request, and on threads running a
+     * {@link javax.servlet.AsyncContext#start(Runnable)} task. An async request's context is cancelled
+     * by one listener shared by all requests, which finds it through the attribute. Map the filter to
+     * the {@code ASYNC} dispatcher type as well as {@code REQUEST} for the context to follow async
+     * dispatches.
+     *
+     * @return this filter.
+     */
+    public CtxFilter detachAfterRequest() {
+        this.detach = true;
+        return this;
+    }
+
     @Override
     public void init(final FilterConfig filterConfig) throws ServletException {
+        compile();
     }
 
     @Override
@@ -62,8 +143,13 @@ public class CtxFilter implements Filter {
                          final ServletResponse response,
                          final FilterChain chain) throws IOException, ServletException {
 
-        final Ctx requestCtx = defaultCtx.newRoot();
-        requestCtx.attachToThread();
+        if (this.detach) {
+            doFilterDetaching(servletRequest, response, chain);
+            return;
+        }
+
+        final Ctx requestCtx = extractHeaders(servletRequest, defaultCtx.newRoot());
+        withDeadline(servletRequest, requestCtx).attachToThread();
 
         try {
             chain.doFilter(servletRequest, response);
@@ -77,6 +163,102 @@ public class CtxFilter implements Filter {
     public void destroy() {
     }
 
+    private void doFilterDetaching(final ServletRequest request,
+                                   final ServletResponse response,
+                                   final FilterChain chain) throws IOException, ServletException {
+
+        final Object existing = request.getAttribute(CTX_ATTRIBUTE);
+        final boolean created = !(existing instanceof Ctx) || request.getDispatcherType() == DispatcherType.REQUEST;
+        final Ctx ctx;
+        if (created) {
+            ctx = withDeadline(request, extractHeaders(request, this.defaultCtx.newRoot()));
+            request.setAttribute(CTX_ATTRIBUTE, ctx);
+        }
+        else {
+            ctx = (Ctx) existing;
+        }
+        // only an including, forwarding or erroring request's context is restored, anything else on a pooled
+        // thread was left there by an earlier request or dispatch
+        final Ctx previous = reentered(request.getDispatcherType()) ? Ctx.currentOrNull() : null;
+        ctx.attachToThread();
+
+        try {
+            // only a request which can go async needs its async context wrapped
+            final ServletRequest next = request.isAsyncSupported() && request instanceof HttpServletRequest
+                                        ? new AttachingRequest((HttpServletRequest) request, ctx)
+                                        : request;
+            chain.doFilter(next, response);
+        }
+        finally {
+            // restore rather than clean on re-entry, the including request's filter still has its context attached
+            if (previous == null) {
+                Ctx.cleanThread();
+            }
+            else {
+                previous.attachToThread();
+            }
+            if (created) {
+                if (request.isAsyncStarted()) {
+                    request.getAsyncContext().addListener(CancelOnCompletion.INSTANCE, request, response);
+                }
+                else {
+                    ctx.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the dispatch runs within another one of the same request, on its thread.
+     */
+    private static boolean reentered(final DispatcherType type) {
+        return type == DispatcherType.INCLUDE || type == DispatcherType.FORWARD || type == DispatcherType.ERROR;
+    }
+
+    private synchronized Extractor<?>[] compile() {
+        if (this.extractors == null) {
+            this.extractors = this.mappings.isEmpty() ? NO_EXTRACTORS : this.mappings.toArray(NO_EXTRACTORS);
+        }
+        return this.extractors;
+    }
+
+    /**
+     * A peer of the request context holding the values of the mapped headers, all inserted at once.
+     */
+    private Ctx extractHeaders(final ServletRequest request, final Ctx requestCtx) {
+        Extractor<?>[] extractors = this.extractors;
+        if (extractors == null) {
+            extractors = compile();
+        }
+        if (extractors.length == 0 || !(request instanceof HttpServletRequest)) {
+            return requestCtx;
+        }
+        final HttpServletRequest http = (HttpServletRequest) request;
+        Ctx.Builder builder = null;
+        for (Extractor<?> extractor : extractors) {
+            final String value = http.getHeader(extractor.header);
+            if (value != null) {
+                if (builder == null) {
+                    builder = requestCtx.toBuilder();
+                }
+                extractor.putInto(builder, value);
+            }
+        }
+        return builder == null ? requestCtx : builder.build();
+    }
+
+    /**
+     * The request context, or a child of it with a timeout when a deadline header is configured and was sent.
+     * Cancelling the request context cancels the child.
+     */
+    private Ctx withDeadline(final ServletRequest request, final Ctx requestCtx) {
+        if (this.deadlineHeader == null || !(request instanceof HttpServletRequest)) {
+            return requestCtx;
+        }
+        final String value = ((HttpServletRequest) request).getHeader(this.deadlineHeader.getName());
+        return this.deadlineHeader.apply(requestCtx, value);
+    }
+
     /**
      * Utility method for cancelling the context for a given request that handles both sync and async request modes.
      *
@@ -114,4 +296,70 @@ public class CtxFilter implements Filter {
             requestCtx.cancel();
         }
     }
+
+    /**
+     * Cancels the context in the {@link #CTX_ATTRIBUTE} attribute of an async request once it completes,
+     * and stays registered when the request starts async processing again.
+     */
+    private static final class CancelOnCompletion implements AsyncListener {
+        static final CancelOnCompletion INSTANCE = new CancelOnCompletion();
+
+        @Override
+        public void onComplete(final AsyncEvent event) throws IOException {
+            cancel(event);
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) throws IOException {
+            cancel(event);
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) throws IOException {
+            cancel(event);
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) throws IOException {
+            event.getAsyncContext().addListener(this, event.getSuppliedRequest(), event.getSuppliedResponse());
+        }
+
+        private static void cancel(final AsyncEvent event) {
+            final ServletRequest request = event.getSuppliedRequest() != null
+                                           ? event.getSuppliedRequest()
+                                           : event.getAsyncContext().getRequest();
+            final Object ctx = request.getAttribute(CTX_ATTRIBUTE);
+            if (ctx instanceof Ctx) {
+                ((Ctx) ctx).cancel();
+            }
+        }
+    }
+
+    /**
+     * A compiled header mapping.
+     */
+    private static final class Extractor<T> {
+        private final String header;
+        private final Ctx.Key<T> key;
+        private final KeyCodec<T> codec;
+
+        Extractor(final String header, final Ctx.Key<T> key, final KeyCodec<T> codec) {
+            this.header = header;
+            this.key = key;
+            this.codec = codec;
+        }
+
+        void putInto(final Ctx.Builder builder, final String value) {
+            final T decoded;
+            try {
+                decoded = this.codec.decode(value);
+            }
+            catch (RuntimeException e) {
+                return;
+            }
+            if (decoded != null) {
+                builder.put(this.key, decoded);
+            }
+        }
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.reactor;
+
+import com.groupon.jtier.Ctx;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.function.Function;
+
+/**
+ * Reactor integration. Reactor is an optional dependency of this library, and only this package uses it.
+ * <p>
+ * {@link #install()} registers a schedule hook which runs every task given to a Reactor scheduler with
+ * the context attached to the thread which scheduled it, so that the attached context follows a pipeline
+ * across {@code subscribeOn}, {@code publishOn} and timed operators. {@link #cancelWith(Ctx)} cancels a
+ * subscription when a context is cancelled.
+ */
+public final class CtxReactor {
+
+    /**
+     * Key of the schedule hook, see {@link Schedulers#onScheduleHook(String, Function)}.
+     */
+    public static final String HOOK_KEY = Ctx.class.getName();
+
+    private CtxReactor() {
+    }
+
+    /**
+     * Install the schedule hook. Installing twice does nothing.
+     */
+    public static void install() {
+        Schedulers.onScheduleHook(HOOK_KEY, (task) -> {
+            final Ctx ctx = Ctx.currentOrNull();
+            return ctx == null ? task : ctx.propagate(task);
+        });
+    }
+
+    /**
+     * Remove the schedule hook.
+     */
+    public static void uninstall() {
+        Schedulers.resetOnScheduleHook(HOOK_KEY);
+    }
+
+    /**
+     * A function for {@link Flux#transform(Function)} and {@link Mono#transform(Function)} which cancels each
+     * subscription when the context is cancelled. The cancel listener is removed once the subscription
+     * terminates or is cancelled, see {@link Ctx#newBinding()}. A subscription made after the context is
+     * cancelled is cancelled immediately. Cancellation delivers no terminal signal.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, P extends Publisher<T>> Function<P, Publisher<T>> cancelWith(final Ctx ctx) {
+        return (upstream) -> {
+            if (upstream instanceof Mono) {
+                final Mono<T> mono = (Mono<T>) upstream;
+                return Mono.defer(() -> {
+                    final Ctx.Binding binding = ctx.newBinding();
+                    return mono.doOnSubscribe((s) -> binding.bind(s::cancel))
+                               .doFinally((signal) -> binding.dispose());
+                });
+            }
+            final Flux<T> flux = Flux.from(upstream);
+            return Flux.defer(() -> {
+                final Ctx.Binding binding = ctx.newBinding();
+                return flux.doOnSubscribe((s) -> binding.bind(s::cancel))
+                           .doFinally((signal) -> binding.dispose());
+            });
+        };
+    }
+}
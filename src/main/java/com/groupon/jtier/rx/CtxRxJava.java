@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.rx;
+
+import com.groupon.jtier.Ctx;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
+import io.reactivex.CompletableTransformer;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeSource;
+import io.reactivex.MaybeTransformer;
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.SingleTransformer;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.BiFunction;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.plugins.RxJavaPlugins;
+import org.reactivestreams.Publisher;
+
+/**
+ * RxJava 2 integration. RxJava is an optional dependency of this library, and only this package uses it.
+ * <p>
+ * {@link #install()} registers a schedule handler which runs every task given to an RxJava scheduler with
+ * the context attached to the thread which scheduled it, so that the attached context follows a pipeline
+ * across {@code subscribeOn}, {@code observeOn} and timed operators. {@link #cancelWith(Ctx)} disposes a
+ * subscription when a context is cancelled.
+ * <p>
+ * The {@code propagate} methods wrap the RxJava function types like {@link Ctx#propagate(Object)} wraps
+ * the {@code java.util.function} ones, in a plain lambda rather than a dynamic proxy. Each is named after
+ * the type it wraps, so they take implicitly typed lambdas as well as method references.
+ */
+public final class CtxRxJava {
+
+    private static Function<? super Runnable, ? extends Runnable> previous;
+    private static boolean installed;
+
+    private CtxRxJava() {
+    }
+
+    /**
+     * Install the schedule handler. A handler which was already set still runs, on the task with the
+     * context attached. Installing twice does nothing.
+     */
+    public static synchronized void install() {
+        if (installed) {
+            return;
+        }
+        final Function<? super Runnable, ? extends Runnable> existing = RxJavaPlugins.getScheduleHandler();
+        RxJavaPlugins.setScheduleHandler((task) -> {
+            final Runnable run = existing == null ? task : existing.apply(task);
+            final Ctx ctx = Ctx.currentOrNull();
+            return ctx == null ? run : ctx.propagate(run);
+        });
+        previous = existing;
+        installed = true;
+    }
+
+    /**
+     * Restore the schedule handler which was set before {@link #install()}.
+     */
+    public static synchronized void uninstall() {
+        if (!installed) {
+            return;
+        }
+        RxJavaPlugins.setScheduleHandler(previous);
+        previous = null;
+        installed = false;
+    }
+
+    /**
+     * Wraps a function such that the context is attached to the thread while it runs.
+     */
+    public static <T, R> Function<T, R> propagateFunction(final Ctx ctx, final Function<T, R> f) {
+        return (t) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                return f.apply(t);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps a function such that the context is attached to the thread while it runs.
+     */
+    public static <T, U, R> BiFunction<T, U, R> propagateBiFunction(final Ctx ctx, final BiFunction<T, U, R> f) {
+        return (t, u) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                return f.apply(t, u);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps a consumer such that the context is attached to the thread while it runs.
+     */
+    public static <T> Consumer<T> propagateConsumer(final Ctx ctx, final Consumer<T> c) {
+        return (t) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                c.accept(t);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps a predicate such that the context is attached to the thread while it runs.
+     */
+    public static <T> Predicate<T> propagatePredicate(final Ctx ctx, final Predicate<T> p) {
+        return (t) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                return p.test(t);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps an action such that the context is attached to the thread while it runs.
+     */
+    public static Action propagateAction(final Ctx ctx, final Action a) {
+        return () -> {
+            final Ctx previous = ctx.enter();
+            try {
+                a.run();
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+    }
+
+    /**
+     * A transformer, for any of the RxJava types, which disposes each subscription when the context is
+     * cancelled. The cancel listener is removed once the subscription terminates or is disposed, see
+     * {@link Ctx#newBinding()}. A subscription made after the context is cancelled is disposed immediately.
+     * Disposal delivers no terminal event.
+     */
+    public static <T> CancelWith<T> cancelWith(final Ctx ctx) {
+        return new CancelWith<>(ctx);
+    }
+
+    /**
+     * See {@link #cancelWith(Ctx)}.
+     */
+    public static final class CancelWith<T> implements ObservableTransformer<T, T>,
+                                                       FlowableTransformer<T, T>,
+                                                       SingleTransformer<T, T>,
+                                                       MaybeTransformer<T, T>,
+                                                       CompletableTransformer {
+        private final Ctx ctx;
+
+        CancelWith(final Ctx ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public ObservableSource<T> apply(final Observable<T> upstream) {
+            return Observable.defer(() -> {
+                final Ctx.Binding binding = this.ctx.newBinding();
+                return upstream.doOnSubscribe((d) -> binding.bind(d::dispose))
+                               .doFinally(binding::dispose);
+            });
+        }
+
+        @Override
+        public Publisher<T> apply(final Flowable<T> upstream) {
+            return Flowable.defer(() -> {
+                final Ctx.Binding binding = this.ctx.newBinding();
+                return upstream.doOnSubscribe((s) -> binding.bind(s::cancel))
+                               .doFinally(binding::dispose);
+            });
+        }
+
+        @Override
+        public SingleSource<T> apply(final Single<T> upstream) {
+            return Single.defer(() -> {
+                final Ctx.Binding binding = this.ctx.newBinding();
+                return upstream.doOnSubscribe((d) -> binding.bind(d::dispose))
+                               .doFinally(binding::dispose);
+            });
+        }
+
+        @Override
+        public MaybeSource<T> apply(final Maybe<T> upstream) {
+            return Maybe.defer(() -> {
+                final Ctx.Binding binding = this.ctx.newBinding();
+                return upstream.doOnSubscribe((d) -> binding.bind(d::dispose))
+                               .doFinally(binding::dispose);
+            });
+        }
+
+        @Override
+        public CompletableSource apply(final Completable upstream) {
+            return Completable.defer(() -> {
+                final Ctx.Binding binding = this.ctx.newBinding();
+                return upstream.doOnSubscribe((d) -> binding.bind(d::dispose))
+                               .doFinally(binding::dispose);
+            });
+        }
+    }
+}
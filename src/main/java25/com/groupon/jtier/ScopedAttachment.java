@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Scoped attachment backend for {@link Ctx#runAttached(Runnable)} and {@link Ctx#callAttached(Callable)},
+ * selected with {@code -Djtier.ctx.storage=scoped}.
+ * <p>
+ * Each block binds a fresh {@link Ctx.Attachment} holder to a {@link ScopedValue}, which takes precedence
+ * over the selected {@link CtxStorage} while bound. Binding is O(1), costs a virtual thread no thread local
+ * map entry, and is undone by the runtime when the block exits, so there is nothing to clean up beyond
+ * running the listeners of the block's context and of the one attached outside it. Without the property,
+ * blocks attach the context through the selected {@link CtxStorage} as on older JDKs.
+ */
+final class ScopedAttachment {
+
+    static final boolean ENABLED = "scoped".equals(System.getProperty("jtier.ctx.storage"));
+
+    private static final ScopedValue<Ctx.Attachment> CURRENT = ScopedValue.newInstance();
+
+    private ScopedAttachment() {
+    }
+
+    /**
+     * @return the holder bound by the innermost enclosing scoped block, or null.
+     */
+    static Ctx.Attachment current() {
+        // orElse rejects null since JDK 25
+        return ENABLED && CURRENT.isBound() ? CURRENT.get() : null;
+    }
+
+    static void run(final Ctx ctx, final Runnable r) {
+        if (!ENABLED) {
+            final Ctx previous = ctx.enter();
+            try {
+                r.run();
+            } finally {
+                ctx.exit(previous);
+            }
+            return;
+        }
+        final Ctx previous = Ctx.currentOrNull();
+        if (previous == ctx) {
+            r.run();
+            return;
+        }
+
+        ScopedValue.where(CURRENT, inherit(previous)).run(() -> {
+            ctx.attachToThread();
+            try {
+                r.run();
+            } finally {
+                exit(previous);
+            }
+        });
+    }
+
+    static <T> T call(final Ctx ctx, final Callable<T> c) throws Exception {
+        if (!ENABLED) {
+            final Ctx previous = ctx.enter();
+            try {
+                return c.call();
+            } finally {
+                ctx.exit(previous);
+            }
+        }
+        final Ctx previous = Ctx.currentOrNull();
+        if (previous == ctx) {
+            return c.call();
+        }
+
+        return ScopedValue.where(CURRENT, inherit(previous)).call(() -> {
+            ctx.attachToThread();
+            try {
+                return c.call();
+            } finally {
+                exit(previous);
+            }
+        });
+    }
+
+    /**
+     * A holder starting out with the context attached outside the block, so that attaching the block's
+     * context detaches it and fires its detach listeners, as with the other backends. The outside holder,
+     * or storage, is never touched and still has it once the block exits.
+     */
+    private static Ctx.Attachment inherit(final Ctx previous) {
+        final Ctx.Attachment attachment = new Ctx.Attachment();
+        attachment.ctx = previous;
+        return attachment;
+    }
+
+    /**
+     * Attaches the context from outside the block again, firing its attach listeners, before the binding goes.
+     */
+    private static void exit(final Ctx previous) {
+        // the block may have attached, or closed, a different context
+        Ctx.cleanThread();
+        if (previous != null) {
+            previous.attachToThread();
+        }
+    }
+}
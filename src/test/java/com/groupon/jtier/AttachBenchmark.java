@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of attaching and detaching a Ctx around a task. {@link #tasksOnThread()} runs a batch of
+ * propagated tasks on a fresh platform or virtual thread; virtual threads need a JDK which has them
+ * (run with {@code -p threads=platform} elsewhere).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttachBenchmark {
+
+    private static final int TASKS = 1000;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    private ThreadFactory factory;
+    private Ctx ctx;
+    private Runnable task;
+    private long counter;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.ctx = Ctx.empty().with(Ctx.key("request-id", String.class), "abc");
+        this.task = () -> this.counter++;
+        if ("virtual".equals(this.threads)) {
+            this.factory = virtualThreadFactory();
+        }
+        else {
+            this.factory = Thread::new;
+        }
+    }
+
+    @Benchmark
+    public void attachAndClose() {
+        this.ctx.attachToThread();
+        this.ctx.close();
+    }
+
+    @Benchmark
+    public void propagate() {
+        this.ctx.propagate(this.task).run();
+    }
+
+    @Benchmark
+    public void runAttached() {
+        this.ctx.runAttached(this.task);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void tasksOnThread() throws InterruptedException {
+        final Thread t = this.factory.newThread(() -> {
+            for (int i = 0; i < TASKS; i++) {
+                this.ctx.propagate(this.task).run();
+            }
+        });
+        t.start();
+        t.join();
+    }
+
+    private static ThreadFactory virtualThreadFactory() throws Exception {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        }
+        catch (NoSuchMethodException | ClassNotFoundException e) {
+            throw new IllegalStateException("virtual threads are not available on this JDK", e);
+        }
+    }
+}
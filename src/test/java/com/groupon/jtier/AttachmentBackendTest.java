@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that every attachment backend fires listeners in the same order around nested blocks. The backend
+ * is chosen once per JVM, so each one runs {@link Nested} in a JVM of its own. The scoped backend is only
+ * checked on JDK 25 or later, with the jdk25 profile's classes built.
+ */
+@RunWith(Parameterized.class)
+public class AttachmentBackendTest {
+
+    private static final String NESTED = "+outer -outer +inner [in] -inner +outer [after] -outer";
+
+    private final String backend;
+
+    public AttachmentBackendTest(final String backend) {
+        this.backend = backend;
+    }
+
+    @Parameters(name = "{0}")
+    public static List<Object[]> backends() {
+        return Arrays.asList(new Object[]{"threadlocal"}, new Object[]{"indexed"}, new Object[]{"scoped"});
+    }
+
+    @Test
+    public void testNestedRunAttachedReattachesTheOuterContext() throws Exception {
+        assertThat(runNested("run")).isEqualTo(NESTED);
+    }
+
+    @Test
+    public void testNestedCallAttachedReattachesTheOuterContext() throws Exception {
+        assertThat(runNested("call")).isEqualTo(NESTED);
+    }
+
+    private String runNested(final String mode) throws Exception {
+        final File versioned = versionedClasses();
+        if ("scoped".equals(this.backend)) {
+            assumeTrue("scoped attachment needs JDK 25 and the jdk25 profile", javaVersion() >= 25 && versioned != null);
+        }
+        String classpath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        if (versioned != null) {
+            // a classes directory, unlike the jar, is not multi-release
+            classpath = versioned.getPath() + File.pathSeparator + classpath;
+        }
+
+        final Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                                                   "-Djtier.ctx.storage=" + this.backend,
+                                                   "-cp", classpath,
+                                                   Nested.class.getName(), mode).redirectErrorStream(true).start();
+        final String output = read(process.getInputStream());
+        assertThat(process.waitFor(1, TimeUnit.MINUTES)).isTrue();
+        assertThat(process.exitValue()).as(output).isEqualTo(0);
+        return output.trim();
+    }
+
+    /**
+     * @return the jdk25 profile's classes when running from a classes directory which has them, otherwise null.
+     */
+    private static File versionedClasses() throws Exception {
+        final File classes = new File(Ctx.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        final File versioned = new File(classes, "META-INF/versions/25");
+        return versioned.isDirectory() ? versioned : null;
+    }
+
+    private static int javaVersion() {
+        final String version = System.getProperty("java.specification.version");
+        return version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+    }
+
+    private static String read(final InputStream in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Prints the listener events of a block attaching one context nested in a block attaching another.
+     */
+    public static final class Nested {
+
+        public static void main(final String[] args) throws Exception {
+            final StringBuilder events = new StringBuilder();
+            final Ctx outer = Ctx.empty();
+            outer.onAttach(() -> events.append(" +outer"));
+            outer.onDetach(() -> events.append(" -outer"));
+            final Ctx inner = Ctx.empty();
+            inner.onAttach(() -> events.append(" +inner"));
+            inner.onDetach(() -> events.append(" -inner"));
+
+            if ("call".equals(args[0])) {
+                outer.callAttached(() -> {
+                    inner.callAttached(() -> events.append(" [in]"));
+                    return events.append(" [after]");
+                });
+            }
+            else {
+                outer.runAttached(() -> {
+                    inner.runAttached(() -> events.append(" [in]"));
+                    events.append(" [after]");
+                });
+            }
+            System.out.print(events);
+        }
+    }
+}
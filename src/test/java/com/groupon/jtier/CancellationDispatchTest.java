@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CancellationDispatchTest {
+
+    @Test
+    public void testFailingListenerDoesNotStopTheRest() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        final AtomicInteger ran = new AtomicInteger();
+        final List<Throwable> uncaught = new ArrayList<>();
+
+        final Thread.UncaughtExceptionHandler previous = Thread.currentThread().getUncaughtExceptionHandler();
+        Thread.currentThread().setUncaughtExceptionHandler((t, e) -> uncaught.add(e));
+        try {
+            ctx.onCancel(ran::incrementAndGet);
+            ctx.onCancel(() -> {
+                throw new IllegalStateException("boom");
+            });
+            ctx.onCancel(ran::incrementAndGet);
+            ctx.cancel();
+        } finally {
+            Thread.currentThread().setUncaughtExceptionHandler(previous);
+        }
+
+        assertThat(ran.get()).isEqualTo(2);
+        assertThat(uncaught).hasSize(1);
+    }
+
+    @Test
+    public void testExecutorDispatch() throws Exception {
+        final List<Runnable> submitted = new ArrayList<>();
+        final Ctx ctx = Ctx.empty().withCancellationDispatch(CancellationDispatch.executor(submitted::add));
+        final Ctx child = ctx.createChild();
+        final AtomicInteger ran = new AtomicInteger();
+        ctx.onCancel(ran::incrementAndGet);
+        child.onCancel(ran::incrementAndGet);
+
+        ctx.cancel();
+
+        assertThat(child.isCancelled()).describedAs("children are cancelled inline").isTrue();
+        assertThat(ran.get()).isZero();
+        assertThat(submitted).hasSize(2);
+
+        submitted.forEach(Runnable::run);
+        assertThat(ran.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testBatchedDispatchUsesOneTaskForASubtree() throws Exception {
+        final List<Runnable> submitted = new ArrayList<>();
+        final Executor executor = submitted::add;
+        final CancellationDispatch batched = CancellationDispatch.batched(executor);
+        final Ctx root = Ctx.empty().withCancellationDispatch(batched);
+        final List<Integer> order = new ArrayList<>();
+        root.onCancel(() -> order.add(0));
+        final Ctx a = root.createChild();
+        a.onCancel(() -> order.add(1));
+        a.onCancel(() -> order.add(2));
+        root.createChild().onCancel(() -> order.add(3));
+
+        root.cancel();
+
+        assertThat(submitted).hasSize(1);
+        submitted.get(0).run();
+        assertThat(order).containsExactlyInAnyOrder(0, 1, 2, 3);
+        assertThat(order.indexOf(1)).isLessThan(order.indexOf(2));
+
+        // once drained, a later cancellation schedules a new task
+        final Ctx other = Ctx.empty().withCancellationDispatch(batched);
+        other.onCancel(() -> order.add(4));
+        other.cancel();
+        assertThat(submitted).hasSize(2);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A long lived root, like the default context of a filter, must not keep the children created from
+ * it reachable.
+ */
+public class ChildLeakTest {
+
+    private static final int CHILDREN = 10_000_000;
+    private static final int LISTENED_CHILDREN = 1_000_000;
+    private static final long MAX_RETAINED_BYTES = 64L * 1024 * 1024;
+
+    @Test
+    public void testAbandonedChildrenAreNotRetained() throws Exception {
+        final Ctx root = Ctx.empty();
+        final long before = usedHeap();
+
+        for (int i = 0; i < CHILDREN; i++) {
+            root.createChild();
+        }
+
+        assertThat(usedHeap() - before).isLessThan(MAX_RETAINED_BYTES);
+        assertThat(root.isCancelled()).isFalse();
+    }
+
+    @Test
+    public void testCancelledChildrenAreNotRetained() throws Exception {
+        final Ctx root = Ctx.empty();
+        final long before = usedHeap();
+
+        for (int i = 0; i < CHILDREN; i++) {
+            root.createChild().cancel();
+        }
+
+        assertThat(usedHeap() - before).isLessThan(MAX_RETAINED_BYTES);
+    }
+
+    @Test
+    public void testChildrenWithDisposedListenersAreNotRetained() throws Exception {
+        final Ctx root = Ctx.empty();
+        final long before = usedHeap();
+
+        for (int i = 0; i < LISTENED_CHILDREN; i++) {
+            root.createChild().onCancel(() -> {
+            }).dispose();
+        }
+
+        assertThat(usedHeap() - before).isLessThan(MAX_RETAINED_BYTES);
+    }
+
+    @Test
+    public void testAncestorsOfDisposedListenersAreNotRetained() throws Exception {
+        final Ctx root = Ctx.empty();
+        final long before = usedHeap();
+
+        for (int i = 0; i < LISTENED_CHILDREN; i++) {
+            root.createChild().createChild().onCancel(() -> {
+            }).dispose();
+        }
+
+        assertThat(usedHeap() - before).isLessThan(MAX_RETAINED_BYTES);
+    }
+
+    @Test
+    public void testChildrenBoundToCompletedFuturesAreNotRetained() throws Exception {
+        final Ctx root = Ctx.empty();
+        final long before = usedHeap();
+
+        for (int i = 0; i < LISTENED_CHILDREN; i++) {
+            root.createChild().bind(new CompletableFuture<>()).complete("done");
+        }
+
+        assertThat(usedHeap() - before).isLessThan(MAX_RETAINED_BYTES);
+    }
+
+    @Test
+    public void testChildIsRetainedAgainByLaterListener() throws Exception {
+        final Ctx root = Ctx.empty();
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final Ctx child = root.createChild();
+        child.onCancel(() -> {
+        }).dispose();
+        child.createChild().onCancel(() -> cancelled.set(true));
+
+        usedHeap();
+        root.createChild();
+        root.cancel();
+
+        assertThat(cancelled.get()).isTrue();
+    }
+
+    @Test
+    public void testChildWithListenerIsRetained() throws Exception {
+        final Ctx root = Ctx.empty();
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        root.createChild().onCancel(() -> cancelled.set(true));
+
+        usedHeap();
+        root.createChild();
+        root.cancel();
+
+        assertThat(cancelled.get()).isTrue();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CompletableFutureTest {
+
+    private static final Ctx.Key<String> NAME = Ctx.key("name", String.class);
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        this.pool = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void testBindCancelsFuture() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        final CompletableFuture<String> future = ctx.bind(new CompletableFuture<>());
+
+        ctx.cancel();
+        assertThat(future.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testBoundFutureCompletionRemovesListener() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        for (int i = 0; i < 1000; i++) {
+            ctx.bind(new CompletableFuture<String>()).complete("done");
+        }
+        final CompletableFuture<String> pending = ctx.bind(new CompletableFuture<>());
+
+        ctx.cancel();
+        assertThat(pending.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testBindTimeout() throws Exception {
+        final Ctx ctx = Ctx.empty().withTimeout(10, TimeUnit.MILLISECONDS);
+        final CompletableFuture<String> future = ctx.bind(new CompletableFuture<>());
+
+        assertThatThrownBy(() -> future.get(1, TimeUnit.SECONDS)).isInstanceOf(CancellationException.class);
+    }
+
+    @Test
+    public void testWhenCancelled() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        final CompletionStage<CancellationCause> stage = ctx.whenCancelled();
+        assertThat(stage.toCompletableFuture().isDone()).isFalse();
+
+        ctx.cancel(CancellationCause.TIMEOUT);
+        assertThat(stage.toCompletableFuture().get()).isSameAs(CancellationCause.TIMEOUT);
+    }
+
+    @Test
+    public void testWhenCancelledCannotBeCompletedByCaller() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        ctx.whenCancelled().toCompletableFuture().complete(CancellationCause.of("bogus"));
+        ctx.whenCancelled().toCompletableFuture().cancel(false);
+
+        ctx.cancel(CancellationCause.TIMEOUT);
+        assertThat(ctx.whenCancelled().toCompletableFuture().get()).isSameAs(CancellationCause.TIMEOUT);
+    }
+
+    @Test
+    public void testAsyncStagesPropagate() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+
+        final CompletableFuture<String> first = ctx.supplyAsync(() -> Ctx.currentOrNull().getOrNull(NAME), this.pool);
+        final CompletionStage<String> second = ctx.thenApplyAsync(first,
+                                                                  (s) -> s + " " + Ctx.currentOrNull().getOrNull(NAME),
+                                                                  this.pool);
+        final CompletionStage<String> third = ctx.thenComposeAsync(second,
+                                                                   (s) -> CompletableFuture.completedFuture(s + "!"),
+                                                                   this.pool);
+
+        assertThat(third.toCompletableFuture().get(1, TimeUnit.SECONDS)).isEqualTo("Brian Brian!");
+    }
+}
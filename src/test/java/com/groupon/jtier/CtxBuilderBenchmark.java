@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding {@link #keys} values to a context which already holds a few, as request entry code does: a
+ * chain of {@link Ctx#with(Ctx.Key, Object)} calls against one {@link Ctx.Builder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CtxBuilderBenchmark {
+
+    @Param({"1", "5", "15", "64"})
+    public int keys;
+
+    private Ctx base;
+    private Ctx.Key<String>[] keyArray;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        this.base = Ctx.empty()
+                       .with(Ctx.key("base-a", String.class), "a")
+                       .with(Ctx.key("base-b", String.class), "b");
+        this.keyArray = new Ctx.Key[this.keys];
+        for (int i = 0; i < this.keys; i++) {
+            this.keyArray[i] = Ctx.key("builder-" + i, String.class);
+        }
+    }
+
+    @Benchmark
+    public Ctx withChain() {
+        Ctx ctx = this.base;
+        for (Ctx.Key<String> key : this.keyArray) {
+            ctx = ctx.with(key, "value");
+        }
+        return ctx;
+    }
+
+    @Benchmark
+    public Ctx builder() {
+        final Ctx.Builder builder = this.base.toBuilder();
+        for (Ctx.Key<String> key : this.keyArray) {
+            builder.put(key, "value");
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CtxCodec} on a context with a few propagated values: encoding a context which was already
+ * encoded (every call after the first of a fan out), encoding a fresh one, and decoding both forms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CtxCodecBenchmark {
+
+    private static final Ctx.Key<UUID> REQUEST_ID = Ctx.key("bench-request-id", UUID.class,
+                                                              KeyCodec.of(UUID::toString, UUID::fromString));
+    private static final Ctx.Key<String> CLIENT = Ctx.key("bench-client", String.class, KeyCodec.strings());
+    private static final Ctx.Key<Long> ATTEMPT = Ctx.key("bench-attempt", Long.class, KeyCodec.longs());
+    private static final Ctx.Key<String> LOCAL = Ctx.key("bench-local", String.class);
+
+    private final CtxCodec codec = CtxCodec.create();
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private Ctx ctx;
+    private Map<String, String> map;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        this.ctx = Ctx.empty()
+                      .with(REQUEST_ID, UUID.randomUUID())
+                      .with(CLIENT, "checkout-web")
+                      .with(ATTEMPT, 1L)
+                      .with(LOCAL, "stays here");
+        this.map = this.codec.encode(this.ctx);
+        this.bytes = this.codec.toBytes(this.ctx);
+    }
+
+    @Benchmark
+    public Map<String, String> encodeCached() {
+        return this.codec.encode(this.ctx);
+    }
+
+    @Benchmark
+    public Map<String, String> encodeFresh() {
+        return this.codec.encode(this.ctx.with(ATTEMPT, 2L));
+    }
+
+    @Benchmark
+    public ByteBuffer writeCached() {
+        this.buffer.clear();
+        this.codec.writeTo(this.ctx, this.buffer);
+        return this.buffer;
+    }
+
+    @Benchmark
+    public Ctx decodeMap() {
+        return this.codec.decode(Ctx.empty(), this.map);
+    }
+
+    @Benchmark
+    public Ctx decodeBytes() {
+        return this.codec.decode(Ctx.empty(), this.bytes);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+public class CtxCodecTest {
+
+    private static final Ctx.Key<UUID> REQUEST_ID = Ctx.key("codec-request-id", UUID.class,
+                                                              KeyCodec.of(UUID::toString, UUID::fromString));
+    private static final Ctx.Key<String> USER = Ctx.key("codec-user", String.class, KeyCodec.strings());
+    private static final Ctx.LongKey ATTEMPT = Ctx.longKey("codec-attempt");
+    private static final Ctx.Key<String> LOCAL = Ctx.key("codec-local", String.class);
+
+    static {
+        Ctx.key("codec-attempt", Long.class, KeyCodec.longs());
+    }
+
+    private final UUID id = UUID.randomUUID();
+    private final Ctx ctx = Ctx.empty()
+                               .with(REQUEST_ID, this.id)
+                               .with(USER, "brian")
+                               .with(ATTEMPT, 3)
+                               .with(LOCAL, "not for the wire");
+
+    @Test
+    public void testEncodesOnlyPropagatedKeys() throws Exception {
+        final Map<String, String> encoded = CtxCodec.create().encode(this.ctx);
+
+        assertThat(encoded).containsOnly(entry("codec-request-id", this.id.toString()),
+                                         entry("codec-user", "brian"),
+                                         entry("codec-attempt", "3"));
+    }
+
+    @Test
+    public void testMapRoundTrip() throws Exception {
+        final CtxCodec codec = CtxCodec.create();
+        final Ctx decoded = codec.decode(Ctx.empty(), codec.encode(this.ctx));
+
+        assertThat(decoded.get(REQUEST_ID)).contains(this.id);
+        assertThat(decoded.get(USER)).contains("brian");
+        assertThat(decoded.getLong(ATTEMPT, -1)).isEqualTo(3);
+        assertThat(decoded.get(LOCAL)).isEmpty();
+    }
+
+    @Test
+    public void testBinaryRoundTripThroughReusedBuffer() throws Exception {
+        final CtxCodec codec = CtxCodec.create();
+        final ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        for (int i = 0; i < 3; i++) {
+            buffer.clear();
+            codec.writeTo(this.ctx.with(USER, "user-" + i), buffer);
+            assertThat(buffer.position()).isEqualTo(codec.encodedSize(this.ctx.with(USER, "user-" + i)));
+            buffer.flip();
+
+            final Ctx decoded = codec.decode(Ctx.empty(), buffer);
+            assertThat(decoded.get(USER)).contains("user-" + i);
+            assertThat(decoded.get(REQUEST_ID)).contains(this.id);
+            assertThat(buffer.hasRemaining()).isFalse();
+        }
+    }
+
+    @Test
+    public void testBinaryFormIsVarintLengthPrefixed() throws Exception {
+        final byte[] bytes = CtxCodec.create().toBytes(Ctx.empty().with(USER, "é"));
+
+        assertThat(bytes).containsExactly(new byte[]{1, 10, 'c', 'o', 'd', 'e', 'c', '-', 'u', 's', 'e', 'r', 2, (byte) 0xc3, (byte) 0xa9});
+    }
+
+    @Test
+    public void testEncodingIsCachedOnTheContext() throws Exception {
+        final CtxCodec codec = CtxCodec.create();
+
+        assertThat(codec.encode(this.ctx)).isSameAs(codec.encode(this.ctx));
+        assertThat(codec.encode(this.ctx.with(USER, "eric"))).containsEntry("codec-user", "eric");
+    }
+
+    @Test
+    public void testBudgetKeepsKeysInCreationOrder() throws Exception {
+        // more keys than fit on one level of the value store, so trie order and slot order differ
+        final List<String> names = new ArrayList<>();
+        Ctx many = Ctx.empty();
+        for (int i = 0; i < 40; i++) {
+            final String name = String.format("order-k%02d", i);
+            names.add(name);
+            many = many.with(Ctx.key(name, String.class, KeyCodec.strings()), "x");
+        }
+        // each entry is 10 bytes of name and value
+        final CtxCodec codec = CtxCodec.withBudget(80);
+
+        assertThat(codec.encode(many).keySet()).containsExactlyElementsOf(names.subList(0, 8));
+        assertThat(codec.decode(Ctx.empty(), codec.toBytes(many)).get(Ctx.key("order-k07", String.class))).contains("x");
+    }
+
+    @Test
+    public void testBudgetDropsValuesWhichDoNotFit() throws Exception {
+        final CtxCodec codec = CtxCodec.withBudget(20);
+        final Ctx big = Ctx.empty().with(REQUEST_ID, this.id).with(USER, "brian");
+
+        assertThat(codec.encode(big)).containsOnly(entry("codec-user", "brian"));
+
+        final Map<String, String> incoming = new HashMap<>();
+        incoming.put("codec-request-id", this.id.toString());
+        assertThat(codec.decode(Ctx.empty(), incoming).get(REQUEST_ID)).isEmpty();
+    }
+
+    @Test
+    public void testUndecodableValuesAreSkipped() throws Exception {
+        final Map<String, String> incoming = new HashMap<>();
+        incoming.put("codec-request-id", "not a uuid");
+        incoming.put("codec-attempt", "2");
+        incoming.put("unknown", "value");
+
+        final Ctx decoded = CtxCodec.create().decode(Ctx.empty(), incoming);
+
+        assertThat(decoded.get(REQUEST_ID)).isEmpty();
+        assertThat(decoded.getLong(ATTEMPT, -1)).isEqualTo(2);
+    }
+
+    @Test
+    public void testMalformedBinaryIsRejected() throws Exception {
+        assertThatThrownBy(() -> CtxCodec.create().decode(Ctx.empty(), new byte[]{1, 10, 'c'}))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CtxCodec.create().decode(Ctx.empty(), new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testConflictingCodecsAreRejected() throws Exception {
+        assertThatThrownBy(() -> Ctx.key("codec-user", String.class, KeyCodec.of(String::trim, String::trim)))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> Ctx.key("codec-user", Integer.class, KeyCodec.ints()))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(Ctx.key("codec-user", String.class, KeyCodec.strings())).isSameAs(USER);
+    }
+}
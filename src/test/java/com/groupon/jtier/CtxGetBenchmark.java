@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths of a Ctx. Run with {@code -prof gc} to compare the allocation of the
+ * {@link Optional} returning accessors with the allocation free ones. The {@code with} cases show
+ * what adding a value allocates: a primitive key boxes on the way in, on top of the copied node.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CtxGetBenchmark {
+
+    private static final Ctx.Key<String> REQUEST_ID = Ctx.key("request-id", String.class);
+    private static final Ctx.LongKey DEADLINE = Ctx.longKey("deadline");
+    private static final Ctx.BooleanKey DEBUG = Ctx.booleanKey("debug");
+
+    private Ctx ctx;
+    private long deadline = 1_000_000L;
+
+    @Setup
+    public void setUp() {
+        this.ctx = Ctx.empty().with(REQUEST_ID, "abc").with(DEADLINE, 1_000_000L).with(DEBUG, false).attachToThread();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.ctx.close();
+    }
+
+    @Benchmark
+    public Optional<String> get() {
+        return this.ctx.get(REQUEST_ID);
+    }
+
+    @Benchmark
+    public String getOrNull() {
+        return this.ctx.getOrNull(REQUEST_ID);
+    }
+
+    @Benchmark
+    public String getOrDefault() {
+        return this.ctx.getOrDefault(REQUEST_ID, "none");
+    }
+
+    @Benchmark
+    public Optional<Long> getBoxedLong() {
+        return this.ctx.get(DEADLINE.boxed());
+    }
+
+    @Benchmark
+    public long getLong() {
+        return this.ctx.getLong(DEADLINE, -1);
+    }
+
+    @Benchmark
+    public Ctx withString() {
+        return this.ctx.with(REQUEST_ID, "def");
+    }
+
+    @Benchmark
+    public Ctx withLong() {
+        return this.ctx.with(DEADLINE, this.deadline++);
+    }
+
+    @Benchmark
+    public Ctx withBoolean() {
+        return this.ctx.with(DEBUG, (this.deadline++ & 1) == 0);
+    }
+
+    @Benchmark
+    public Optional<String> fromThreadThenGet() {
+        return Ctx.fromThread().flatMap((c) -> c.get(REQUEST_ID));
+    }
+
+    @Benchmark
+    public String currentOrNullThenGetOrNull() {
+        final Ctx current = Ctx.currentOrNull();
+        return current == null ? null : current.getOrNull(REQUEST_ID);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Set and get through each {@link CtxStorage}, on a {@link CtxThread} so that {@link IndexedCtxStorage}
+ * takes its fast path. Other thread locals are populated first, as they would be in an application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CtxStorageBenchmark {
+
+    private static final int OPERATIONS = 1_000_000;
+
+    @Param({"threadlocal", "indexed"})
+    public String storage;
+
+    private CtxStorage impl;
+    private Ctx ctx;
+
+    @Setup
+    public void setUp() {
+        this.impl = "indexed".equals(this.storage) ? new IndexedCtxStorage() : new ThreadLocalCtxStorage();
+        this.ctx = Ctx.empty();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void setGetClear(final Blackhole bh) throws InterruptedException {
+        final Thread t = new CtxThread(() -> {
+            final ThreadLocal<?>[] noise = new ThreadLocal<?>[32];
+            for (int i = 0; i < noise.length; i++) {
+                noise[i] = ThreadLocal.withInitial(Object::new);
+                noise[i].get();
+            }
+            for (int i = 0; i < OPERATIONS; i++) {
+                this.impl.set(this.ctx);
+                bh.consume(this.impl.get());
+                this.impl.set(null);
+            }
+        });
+        t.start();
+        t.join();
+    }
+}
@@ -17,9 +17,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -289,4 +293,141 @@ public class CtxTest {
     public void testSettingValuesWithANullMap() throws Exception {
         assertThatThrownBy(() -> Ctx.empty().with((Map) null, String.class)).isInstanceOf(NullPointerException.class);
     }
+
+    @Test
+    public void testGetOrNullAndDefault() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        final Ctx.Key<String> missing = Ctx.key("missing", String.class);
+
+        assertThat(ctx.getOrNull(NAME)).isEqualTo("Brian");
+        assertThat(ctx.getOrNull(missing)).isNull();
+        assertThat(ctx.getOrDefault(NAME, "Eric")).isEqualTo("Brian");
+        assertThat(ctx.getOrDefault(missing, "Eric")).isEqualTo("Eric");
+    }
+
+    @Test
+    public void testPrimitiveKeys() throws Exception {
+        final Ctx.LongKey deadline = Ctx.longKey("deadline");
+        final Ctx.IntKey attempt = Ctx.intKey("attempt");
+        final Ctx.BooleanKey debug = Ctx.booleanKey("debug");
+
+        final Ctx ctx = Ctx.empty().with(deadline, 1234L).with(attempt, 3).with(debug, true);
+
+        assertThat(ctx.getLong(deadline, -1)).isEqualTo(1234L);
+        assertThat(ctx.getInt(attempt, -1)).isEqualTo(3);
+        assertThat(ctx.getBoolean(debug, false)).isTrue();
+        assertThat(Ctx.empty().getLong(deadline, -1)).isEqualTo(-1);
+        assertThat(ctx.get(Ctx.key("deadline", Long.class))).contains(1234L);
+    }
+
+    @Test
+    public void testCurrentOrNull() throws Exception {
+        assertThat(Ctx.currentOrNull()).isNull();
+
+        try (Ctx c = Ctx.empty().attachToThread()) {
+            assertThat(Ctx.currentOrNull()).isSameAs(c);
+        }
+    }
+
+    @Test
+    public void testKeysOfUnusedMapNamesAreRecycled() throws Exception {
+        final int names = 100_000;
+        final String prefix = UUID.randomUUID().toString();
+        final List<Ctx> first = new ArrayList<>(names);
+        for (int i = 0; i < names; i++) {
+            first.add(Ctx.empty().with(Collections.singletonMap(prefix + "-first-" + i, "v"), String.class));
+        }
+        // keys with a codec always take a fresh slot, so they mark how many slots have been handed out
+        final int afterFirst = Ctx.key(prefix + "-probe-1", String.class, KeyCodec.strings()).slot;
+        first.clear();
+        collectGarbage();
+
+        for (int i = 0; i < names; i++) {
+            Ctx.empty().with(Collections.singletonMap(prefix + "-second-" + i, "v"), String.class);
+        }
+        final int afterSecond = Ctx.key(prefix + "-probe-2", String.class, KeyCodec.strings()).slot;
+
+        // the second batch reused the slots of the first rather than taking new ones
+        assertThat(afterSecond).isLessThan(afterFirst + names / 10);
+    }
+
+    @Test
+    public void testKeyInUseByContextIsNotRecycled() throws Exception {
+        final String name = "kept-" + UUID.randomUUID();
+        final Ctx ctx = Ctx.empty().with(Collections.singletonMap(name, "v"), String.class);
+        collectGarbage();
+
+        assertThat(ctx.get(Ctx.key(name, String.class))).contains("v");
+    }
+
+    @Test
+    public void testBindingRemovesItsListenerOnce() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        final AtomicBoolean ran = new AtomicBoolean();
+
+        final Ctx.Binding disposed = ctx.newBinding();
+        disposed.bind(() -> ran.set(true));
+        disposed.dispose();
+        disposed.dispose();
+
+        final Ctx.Binding early = ctx.newBinding();
+        early.dispose();
+        early.bind(() -> ran.set(true));
+
+        final Ctx.Binding bound = ctx.newBinding();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        bound.bind(() -> cancelled.set(true));
+        assertThatThrownBy(() -> bound.bind(() -> ran.set(true))).isInstanceOf(IllegalStateException.class);
+
+        ctx.cancel();
+        assertThat(cancelled.get()).isTrue();
+        assertThat(ran.get()).isFalse();
+    }
+
+    @Test
+    public void testMapValuesKeepExistingValues() throws Exception {
+        final Map<String, String> map = new HashMap<>();
+        map.put("foo", "bar");
+
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian").with(map, String.class);
+
+        assertThat(ctx.get(NAME)).contains("Brian");
+        assertThat(ctx.get(Ctx.key("foo", String.class))).contains("bar");
+    }
+
+    @Test
+    public void testBuilderAddsValuesToAPeer() throws Exception {
+        final Ctx.Key<String> greeting = Ctx.key("greeting", String.class);
+        final Ctx.IntKey attempt = Ctx.intKey("attempt");
+        final Ctx.BooleanKey debug = Ctx.booleanKey("debug");
+        final Ctx root = Ctx.empty().with(NAME, "Brian");
+
+        final Ctx.Builder builder = root.toBuilder()
+                                        .put(greeting, "hello")
+                                        .put(attempt, 1)
+                                        .put(debug, true)
+                                        .put(attempt, 2);
+        final Ctx built = builder.build();
+
+        assertThat(built.get(NAME)).contains("Brian");
+        assertThat(built.get(greeting)).contains("hello");
+        assertThat(built.getInt(attempt, -1)).isEqualTo(2);
+        assertThat(built.getBoolean(debug, false)).isTrue();
+        assertThat(root.get(greeting)).isEmpty();
+
+        final Ctx more = builder.put(greeting, "bonjour").build();
+        assertThat(more.get(greeting)).contains("bonjour");
+        assertThat(built.get(greeting)).contains("hello");
+
+        root.cancel();
+        assertThat(built.isCancelled()).isTrue();
+        assertThat(more.isCancelled()).isTrue();
+    }
+
+    private static void collectGarbage() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DeadlineHeaderTest {
+
+    private final DeadlineHeader header = DeadlineHeader.create();
+
+    @Test
+    public void testFormatsRemainingMillis() throws Exception {
+        final Ctx ctx = Ctx.empty().withTimeout(5, TimeUnit.SECONDS);
+
+        final long millis = Long.parseLong(this.header.format(ctx).get());
+
+        assertThat(millis).isBetween(4_000L, 5_000L);
+        assertThat(this.header.getName()).isEqualTo("X-Request-Timeout");
+    }
+
+    @Test
+    public void testNoHeaderWithoutDeadline() throws Exception {
+        assertThat(this.header.format(Ctx.empty())).isEmpty();
+    }
+
+    @Test
+    public void testAppliesReceivedBudgetLessSlack() throws Exception {
+        final Ctx ctx = this.header.withSlack(Duration.ofMillis(500)).apply(Ctx.empty(), "3000");
+
+        assertThat(ctx.remainingNanos()).isBetween(TimeUnit.MILLISECONDS.toNanos(2_000), TimeUnit.MILLISECONDS.toNanos(2_500));
+    }
+
+    @Test
+    public void testClampsReceivedBudget() throws Exception {
+        final DeadlineHeader clamped = this.header.withSlack(Duration.ofMillis(100))
+                                                  .withMinimum(Duration.ofMillis(250))
+                                                  .withMaximum(Duration.ofSeconds(2));
+
+        assertThat(clamped.apply(Ctx.empty(), "50").remainingNanos()).isBetween(TimeUnit.MILLISECONDS.toNanos(100),
+                                                                                TimeUnit.MILLISECONDS.toNanos(250));
+        assertThat(clamped.apply(Ctx.empty(), "600000").remainingNanos()).isBetween(TimeUnit.MILLISECONDS.toNanos(1_500),
+                                                                                    TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    public void testExhaustedBudgetTimesOutImmediately() throws Exception {
+        final Ctx ctx = this.header.withSlack(Duration.ofMillis(100)).apply(Ctx.empty(), "20");
+
+        assertThat(ctx.isCancelled()).isTrue();
+        assertThat(ctx.getCancellationCause()).contains(CancellationCause.TIMEOUT);
+    }
+
+    @Test
+    public void testIgnoresMissingOrMalformedValues() throws Exception {
+        final Ctx ctx = Ctx.empty();
+
+        assertThat(this.header.apply(ctx, null)).isSameAs(ctx);
+        assertThat(this.header.apply(ctx, "soon")).isSameAs(ctx);
+        assertThat(this.header.apply(ctx, "-5")).isSameAs(ctx);
+    }
+
+    @Test
+    public void testRejectsInvertedRange() throws Exception {
+        assertThatThrownBy(() -> this.header.withMaximum(Duration.ofSeconds(1)).withMinimum(Duration.ofSeconds(2)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
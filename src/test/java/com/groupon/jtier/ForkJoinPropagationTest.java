@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ForkJoinPropagationTest {
+
+    private static final Ctx.Key<String> NAME = Ctx.key("name", String.class);
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @Before
+    @After
+    public void cleanUpCurrentThread() {
+        Ctx.cleanThread();
+    }
+
+    @After
+    public void shutDownPool() {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void testScheduledTasksCarryContext() throws Exception {
+        final ScheduledExecutorService scheduler = Ctx.createPropagatingExecutor(Executors.newSingleThreadScheduledExecutor());
+        try {
+            final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+            final AtomicInteger runs = new AtomicInteger();
+            final CountDownLatch periodic = new CountDownLatch(3);
+
+            final ScheduledFuture<String> delayed;
+            final ScheduledFuture<?> repeating;
+            try (Ctx _i = ctx.attachToThread()) {
+                delayed = scheduler.schedule(ForkJoinPropagationTest::currentName, 1, TimeUnit.MILLISECONDS);
+                repeating = scheduler.scheduleAtFixedRate(() -> {
+                    if ("Brian".equals(currentName())) {
+                        runs.incrementAndGet();
+                    }
+                    periodic.countDown();
+                }, 0, 1, TimeUnit.MILLISECONDS);
+            }
+
+            assertThat(delayed.get(1, TimeUnit.SECONDS)).isEqualTo("Brian");
+            assertThat(periodic.await(1, TimeUnit.SECONDS)).isTrue();
+            repeating.cancel(false);
+            assertThat(runs.get()).isGreaterThanOrEqualTo(3);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRecursiveTaskCarriesContextAcrossForks() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        final Ctx other = Ctx.empty().attachToThread();
+
+        final List<String> names = ctx.callAttached(() -> this.pool.invoke(new Names(0, 64)));
+
+        assertThat(names).hasSize(64).containsOnly("Brian");
+        assertThat(Ctx.fromThread()).contains(other);
+    }
+
+    @Test
+    public void testParallelStreamCarriesContext() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        final List<Integer> source = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+
+        final List<String> names = this.pool.submit(() -> ctx.parallelStream(source)
+                                                              .map((i) -> currentName())
+                                                              .distinct()
+                                                              .collect(Collectors.toList()))
+                                            .get(1, TimeUnit.SECONDS);
+
+        assertThat(names).containsExactly("Brian");
+    }
+
+    @Test
+    public void testParallelStreamOfCancelledContextFails() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        ctx.cancel();
+
+        assertThatThrownBy(() -> ctx.parallelStream(IntStream.range(0, 100).boxed().collect(Collectors.toList()))
+                                    .forEach((i) -> {
+                                    }))
+                .isInstanceOf(CtxCancelledException.class);
+    }
+
+    private static String currentName() {
+        return Ctx.fromThread().flatMap((c) -> c.get(NAME)).orElse("none");
+    }
+
+    private static final class Names extends CtxRecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Names(final int from, final int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (this.to - this.from == 1) {
+                final List<String> name = new ArrayList<>();
+                name.add(currentName());
+                return name;
+            }
+            final int mid = (this.from + this.to) >>> 1;
+            final Names left = new Names(this.from, mid);
+            final Names right = new Names(mid, this.to);
+            left.fork();
+            final List<String> names = new ArrayList<>(right.compute());
+            names.addAll(left.join());
+            return names;
+        }
+    }
+}
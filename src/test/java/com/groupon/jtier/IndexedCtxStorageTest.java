@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexedCtxStorageTest {
+
+    @Test
+    public void testStoresOnCtxThread() throws Exception {
+        final IndexedCtxStorage storage = new IndexedCtxStorage();
+        final Ctx ctx = Ctx.empty();
+        final ExecutorService pool = Executors.newSingleThreadExecutor(CtxThread.factory("ctx", true));
+
+        final Object[] seen = pool.submit(() -> {
+            final Ctx before = storage.get();
+            storage.set(ctx);
+            final Ctx during = storage.get();
+            storage.set(null);
+            return new Object[]{before, during, storage.get(), Thread.currentThread() instanceof CtxThread};
+        }).get(1, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertThat(seen[0]).isNull();
+        assertThat(seen[1]).isSameAs(ctx);
+        assertThat(seen[2]).isNull();
+        assertThat(seen[3]).isEqualTo(true);
+    }
+
+    @Test
+    public void testFallsBackOnOtherThreads() throws Exception {
+        final IndexedCtxStorage storage = new IndexedCtxStorage();
+        final Ctx ctx = Ctx.empty();
+
+        storage.set(ctx);
+        try {
+            assertThat(storage.get()).isSameAs(ctx);
+        } finally {
+            storage.set(null);
+        }
+        assertThat(storage.get()).isNull();
+    }
+
+    @Test
+    public void testStoragesAreIndependent() throws Exception {
+        final IndexedCtxStorage one = new IndexedCtxStorage();
+        final IndexedCtxStorage two = new IndexedCtxStorage();
+        final Ctx ctx = Ctx.empty();
+
+        final AtomicReference<Ctx> fromOne = new AtomicReference<>();
+        final AtomicReference<Ctx> fromTwo = new AtomicReference<>(ctx);
+
+        final CtxThread t = new CtxThread(() -> {
+            one.set(ctx);
+            fromOne.set(one.get());
+            fromTwo.set(two.get());
+        });
+        t.start();
+        t.join();
+        assertThat(fromOne.get()).isSameAs(ctx);
+        assertThat(fromTwo.get()).isNull();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan out: many threads registering and disposing cancel listeners on one shared parent, with a
+ * number of long lived listeners already registered. Also measures registering and disposing a listener
+ * at the end of a chain of children, which starts and stops holding every ancestor, and cancelling a ctx
+ * with listeners.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LifeBenchmark {
+
+    private static final Runnable NOOP = () -> {
+    };
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({"0", "1000"})
+        public int resident;
+
+        Ctx parent;
+
+        @Setup
+        public void setUp() {
+            this.parent = Ctx.empty();
+            for (int i = 0; i < this.resident; i++) {
+                this.parent.onCancel(NOOP);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Fresh {
+        @Param({"1", "16"})
+        public int listeners;
+
+        Ctx ctx;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            this.ctx = Ctx.empty();
+            for (int i = 0; i < this.listeners; i++) {
+                this.ctx.onCancel(NOOP);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Chain {
+        @Param({"1", "8"})
+        public int depth;
+
+        Ctx leaf;
+
+        @Setup
+        public void setUp() {
+            Ctx ctx = Ctx.empty();
+            for (int i = 0; i < this.depth; i++) {
+                ctx = ctx.createChild();
+            }
+            this.leaf = ctx;
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void registerAndDispose(final Shared shared) {
+        shared.parent.onCancel(NOOP).dispose();
+    }
+
+    @Benchmark
+    public void registerAndDisposeOnChild(final Chain chain) {
+        chain.leaf.onCancel(NOOP).dispose();
+    }
+
+    @Benchmark
+    public void cancel(final Fresh fresh) {
+        fresh.ctx.cancel();
+    }
+}
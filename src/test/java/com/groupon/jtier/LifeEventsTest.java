@@ -15,11 +15,15 @@ package com.groupon.jtier;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class LifeEventsTest {
 
@@ -80,4 +84,97 @@ public class LifeEventsTest {
         c.onCancel(() -> canceled[0] = true );
         assertThat(canceled[0]).isTrue();
     }
+
+    @Test
+    public void testListenersRunInRegistrationOrder() throws Exception {
+        final Ctx c = Ctx.empty();
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final int n = i;
+            c.onCancel(() -> order.add(n));
+        }
+
+        c.cancel();
+        assertThat(order).containsExactly(0, 1, 2, 3, 4);
+    }
+
+    @Test
+    public void testOnlyUndisposedListenersRunAfterSweeping() throws Exception {
+        final Ctx c = Ctx.empty();
+        final AtomicInteger ran = new AtomicInteger();
+        final List<Disposable> disposables = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            disposables.add(c.onCancel(ran::incrementAndGet));
+        }
+        for (int i = 0; i < disposables.size(); i++) {
+            if (i % 1000 != 0) {
+                disposables.get(i).dispose();
+            }
+        }
+
+        c.cancel();
+        assertThat(ran.get()).isEqualTo(10);
+    }
+
+    @Test
+    public void testConcurrentRegistrationAndCancel() throws Exception {
+        for (int round = 0; round < 100; round++) {
+            final Ctx c = Ctx.empty();
+            final AtomicInteger registered = new AtomicInteger();
+            final AtomicInteger ran = new AtomicInteger();
+            final Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        registered.incrementAndGet();
+                        c.onCancel(ran::incrementAndGet);
+                    }
+                });
+                threads[t].start();
+            }
+            c.cancel();
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertThat(ran.get()).isEqualTo(registered.get());
+        }
+    }
+
+    @Test
+    public void testCancellationCause() throws Exception {
+        final Ctx c = Ctx.empty();
+        assertThat(c.getCancellationCause()).isEmpty();
+
+        c.cancel();
+        assertThat(c.getCancellationCause()).contains(CancellationCause.CANCELLED);
+    }
+
+    @Test
+    public void testFirstCauseWinsAndPropagatesToChildren() throws Exception {
+        final CancellationCause disconnected = CancellationCause.of("client disconnected");
+        final Ctx p = Ctx.empty();
+        final Ctx c = p.createChild();
+
+        p.cancel(disconnected);
+        p.cancel(CancellationCause.TIMEOUT);
+
+        assertThat(p.getCancellationCause()).contains(disconnected);
+        assertThat(c.getCancellationCause()).contains(disconnected);
+        assertThat(p.createChild().getCancellationCause()).contains(disconnected);
+    }
+
+    @Test
+    public void testCancelledExceptionIsStacklessAndShared() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("sibling failed");
+        final CancellationCause cause = CancellationCause.of("sibling failed", failure);
+        final Ctx c = Ctx.empty();
+        c.throwIfCancelled();
+
+        c.cancel(cause);
+        assertThatThrownBy(c::throwIfCancelled).isSameAs(cause.toException())
+                                               .isInstanceOf(CtxCancelledException.class);
+        assertThat(cause.toException().getStackTrace()).isEmpty();
+        assertThat(cause.toException().getCancellationCause()).isSameAs(cause);
+        assertThat(cause.getError()).contains(failure);
+    }
 }
@@ -33,7 +33,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 public class OkHttpExample {
 
-    private static final Ctx.Key<UUID> REQUEST_ID = Ctx.key("X-Request-Id", UUID.class);
+    private static final Ctx.Key<UUID> REQUEST_ID = Ctx.key("X-Request-Id", UUID.class,
+                                                              KeyCodec.of(UUID::toString, UUID::fromString));
 
     @Rule
     public MockWebServer web = new MockWebServer();
@@ -69,18 +70,20 @@ public class OkHttpExample {
 
     public static class ExampleInterceptor implements Interceptor {
 
+        private final CtxCodec codec = CtxCodec.create();
+        private final DeadlineHeader deadline = DeadlineHeader.create();
+
         @Override
         public Response intercept(final Chain chain) throws IOException {
             final Request req = chain.request();
-            return chain.proceed(Ctx.fromThread()
-                                    .map((ctx) -> ctx.get(REQUEST_ID)
-                                                     .map((id) -> req.newBuilder()
-                                                                     .addHeader("X-Request-Id", ctx.get(REQUEST_ID)
-                                                                                                   .get()
-                                                                                                   .toString())
-                                                                     .build())
-                                                     .orElse(req))
-                                    .orElse(req));
+            final Ctx ctx = Ctx.currentOrNull();
+            if (ctx == null) {
+                return chain.proceed(req);
+            }
+            final Request.Builder builder = req.newBuilder();
+            this.codec.encode(ctx).forEach(builder::header);
+            this.deadline.format(ctx).ifPresent((value) -> builder.header(this.deadline.getName(), value));
+            return chain.proceed(builder.build());
         }
     }
 }
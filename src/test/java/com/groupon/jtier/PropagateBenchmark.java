@@ -0,0 +1,183 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.groupon.jtier.rx.CtxRxJava;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * {@link Ctx#propagate(Object)}: the lambda fast path for {@link Function}, the cached proxy used for
+ * other interfaces, and the original uncached proxy which went through a Callable on every call. For
+ * other interfaces, the cached proxy is compared with two method handle alternatives. Also
+ * {@link CtxRxJava#propagateFunction(Ctx, io.reactivex.functions.Function)}, against wrapping each call
+ * in a propagated Callable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropagateBenchmark {
+
+    public interface Transform {
+        Object apply(Object value);
+    }
+
+    private final Object value = "value";
+    private Ctx ctx;
+    private Function<Object, Object> function;
+    private Transform transform;
+    private Function<Object, Object> wrappedFunction;
+    private Transform wrappedTransform;
+    private Transform handleProxyTransform;
+    private Transform spreaderProxyTransform;
+    private Function<Object, Object> legacyFunction;
+    private io.reactivex.functions.Function<Object, Object> rxFunction;
+    private io.reactivex.functions.Function<Object, Object> rxCallableFunction;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        this.ctx = Ctx.empty();
+        this.function = (v) -> v;
+        this.transform = (v) -> v;
+        this.wrappedFunction = this.ctx.propagate(this.function);
+        this.wrappedTransform = this.ctx.propagate(this.transform);
+        this.legacyFunction = legacy(this.ctx, this.function);
+        this.handleProxyTransform = handleProxy(this.ctx, this.transform);
+        this.spreaderProxyTransform = spreaderProxy(this.ctx, this.transform);
+        final io.reactivex.functions.Function<Object, Object> rx = (v) -> v;
+        this.rxFunction = CtxRxJava.propagateFunction(this.ctx, rx);
+        this.rxCallableFunction = (v) -> this.ctx.propagate(() -> rx.apply(v)).call();
+    }
+
+    @Benchmark
+    public Object callFunction() {
+        return this.wrappedFunction.apply(this.value);
+    }
+
+    @Benchmark
+    public Object callProxy() {
+        return this.wrappedTransform.apply(this.value);
+    }
+
+    @Benchmark
+    public Object callMethodHandleProxy() {
+        return this.handleProxyTransform.apply(this.value);
+    }
+
+    @Benchmark
+    public Object callSpreaderProxy() {
+        return this.spreaderProxyTransform.apply(this.value);
+    }
+
+    @Benchmark
+    public Object callLegacyProxy() {
+        return this.legacyFunction.apply(this.value);
+    }
+
+    @Benchmark
+    public Object callRxFunction() throws Exception {
+        return this.rxFunction.apply(this.value);
+    }
+
+    @Benchmark
+    public Object callRxFunctionThroughCallable() throws Exception {
+        return this.rxCallableFunction.apply(this.value);
+    }
+
+    @Benchmark
+    public Object wrapAndCallFunction() {
+        return this.ctx.propagate(this.function).apply(this.value);
+    }
+
+    @Benchmark
+    public Object wrapAndCallProxy() {
+        return this.ctx.propagate(this.transform).apply(this.value);
+    }
+
+    @Benchmark
+    public Object wrapAndCallLegacyProxy() {
+        return legacy(this.ctx, this.function).apply(this.value);
+    }
+
+    /**
+     * {@link MethodHandleProxies} implementing the interface with a handle adapted to its signature, which
+     * attaches the context around the target.
+     */
+    private static Transform handleProxy(final Ctx ctx, final Transform target) throws ReflectiveOperationException {
+        final MethodHandle around = MethodHandles.lookup().findStatic(PropagateBenchmark.class, "around",
+                                                                      MethodType.methodType(Object.class, Ctx.class, Transform.class, Object.class));
+        return MethodHandleProxies.asInterfaceInstance(Transform.class, MethodHandles.insertArguments(around, 0, ctx, target));
+    }
+
+    private static Object around(final Ctx ctx, final Transform target, final Object value) {
+        final Ctx previous = ctx.enter();
+        try {
+            return target.apply(value);
+        } finally {
+            ctx.exit(previous);
+        }
+    }
+
+    /**
+     * A dynamic proxy calling the target through a spreading method handle with invokeExact, rather than
+     * {@link Method#invoke(Object, Object...)}.
+     */
+    private static Transform spreaderProxy(final Ctx ctx, final Transform target) throws ReflectiveOperationException {
+        final Method method = Transform.class.getMethod("apply", Object.class);
+        final MethodHandle handle = MethodHandles.publicLookup().unreflect(method)
+                                                 .asType(MethodType.methodType(Object.class, Object.class, Object.class))
+                                                 .asSpreader(Object[].class, 1);
+        final InvocationHandler handler = (proxy, m, args) -> {
+            final Ctx previous = ctx.enter();
+            try {
+                return (Object) handle.invokeExact((Object) target, args);
+            } finally {
+                ctx.exit(previous);
+            }
+        };
+        return (Transform) Proxy.newProxyInstance(Transform.class.getClassLoader(), new Class<?>[]{Transform.class}, handler);
+    }
+
+    /**
+     * The implementation of {@link Ctx#propagate(Object)} before the fast paths.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T legacy(final Ctx ctx, final T fi) {
+        return (T) Proxy.newProxyInstance(fi.getClass().getClassLoader(),
+                                          fi.getClass().getInterfaces(),
+                                          (p, method, args) -> ctx.propagate(() -> method.invoke(fi, args)).call());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PropagationTest {
+
+    private static final Ctx.Key<String> NAME = Ctx.key("name", String.class);
+
+    private final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+
+    @Before
+    @After
+    public void cleanUpCurrentThread() {
+        Ctx.cleanThread();
+    }
+
+    @Test
+    public void testFunctionalInterfacesAreNotProxied() throws Exception {
+        final Function<String, String> f = this.ctx.propagate((String s) -> s + name());
+        final UnaryOperator<String> u = this.ctx.propagate((String s) -> s + name());
+        final BiFunction<String, String, String> bf = this.ctx.propagate((String a, String b) -> a + b + name());
+        final Supplier<String> s = this.ctx.propagate((Supplier<String>) PropagationTest::name);
+        final Predicate<String> p = this.ctx.propagate((String x) -> x.equals(name()));
+
+        final AtomicReference<String> seen = new AtomicReference<>();
+        final Consumer<String> c = this.ctx.propagate((String x) -> seen.set(x + name()));
+        final BiConsumer<String, String> bc = this.ctx.propagate((String a, String b) -> seen.set(a + b + name()));
+
+        for (Object wrapped : new Object[]{f, u, bf, s, p, c, bc}) {
+            assertThat(Proxy.isProxyClass(wrapped.getClass())).isFalse();
+        }
+
+        assertThat(f.apply("hi ")).isEqualTo("hi Brian");
+        assertThat(u.apply("hi ")).isEqualTo("hi Brian");
+        assertThat(bf.apply("hi", " ")).isEqualTo("hi Brian");
+        assertThat(s.get()).isEqualTo("Brian");
+        assertThat(p.test("Brian")).isTrue();
+        c.accept("hi ");
+        assertThat(seen.get()).isEqualTo("hi Brian");
+        bc.accept("hi", " ");
+        assertThat(seen.get()).isEqualTo("hi Brian");
+        assertThat(Ctx.fromThread()).isEmpty();
+    }
+
+    @Test
+    public void testOtherInterfacesAreProxied() throws Exception {
+        final Greeter g = this.ctx.propagate((Greeter) (greeting) -> greeting + ", " + name());
+
+        assertThat(Proxy.isProxyClass(g.getClass())).isTrue();
+        assertThat(g.greet("hello")).isEqualTo("hello, Brian");
+        assertThat(Ctx.fromThread()).isEmpty();
+    }
+
+    @Test
+    public void testProxyThrowsWhatTheTargetThrew() throws Exception {
+        final Greeter g = this.ctx.propagate((Greeter) (greeting) -> {
+            throw new IOException("no " + greeting);
+        });
+
+        assertThatThrownBy(() -> g.greet("hello")).isInstanceOf(IOException.class).hasMessage("no hello");
+        assertThat(Ctx.fromThread()).isEmpty();
+    }
+
+    private static String name() {
+        return Ctx.fromThread().flatMap((c) -> c.get(NAME)).orElse("nobody");
+    }
+
+    public interface Greeter {
+        String greet(String greeting) throws IOException;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link Ctx#runAttached(Runnable)} on 100k concurrently parked virtual threads with the thread local
+ * and the scoped value attachment backends.
+ * <p>
+ * Needs JDK 25 or later, with the multi-release jar (rather than {@code target/classes}) on the classpath
+ * so that the scoped backend is picked up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScopedAttachmentBenchmark {
+
+    private static final int THREADS = 100_000;
+
+    private Ctx ctx;
+
+    @Setup
+    public void setUp() {
+        this.ctx = Ctx.empty().with(Ctx.key("request-id", String.class), "abc");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(THREADS)
+    @Fork(value = 1, jvmArgsAppend = "-Djtier.ctx.storage=threadlocal")
+    public void threadLocal() throws Exception {
+        runConcurrently();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(THREADS)
+    @Fork(value = 1, jvmArgsAppend = "-Djtier.ctx.storage=scoped")
+    public void scopedValue() throws Exception {
+        if (!ScopedAttachment.ENABLED) {
+            throw new IllegalStateException("scoped attachment is not available, see class javadoc");
+        }
+        runConcurrently();
+    }
+
+    private void runConcurrently() throws Exception {
+        final CountDownLatch parked = new CountDownLatch(THREADS);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService pool = newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < THREADS; i++) {
+            pool.execute(() -> this.ctx.runAttached(() -> {
+                parked.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (Ctx.currentOrNull() != this.ctx) {
+                    throw new IllegalStateException("context not attached");
+                }
+            }));
+        }
+        parked.await();
+        release.countDown();
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalStateException("virtual threads are not available on this JDK", e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StickyAttachingExecutorTest {
+
+    private static final Ctx.Key<String> NAME = Ctx.key("name", String.class);
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws Exception {
+        Ctx.cleanThread();
+        this.pool = Ctx.createStickyPropagatingExecutor(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Ctx.cleanThread();
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void testConsecutiveTasksShareOneAttachment() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        final AtomicInteger attaches = new AtomicInteger();
+        final AtomicInteger detaches = new AtomicInteger();
+        ctx.onAttach(attaches::incrementAndGet);
+        ctx.onDetach(detaches::incrementAndGet);
+        final List<String> seen = new CopyOnWriteArrayList<>();
+
+        final CountDownLatch release = blockWorker();
+        try (Ctx _i = ctx.attachToThread()) {
+            for (int i = 0; i < 10; i++) {
+                this.pool.execute(() -> seen.add(Ctx.fromThread().flatMap((c) -> c.get(NAME)).orElse("none")));
+            }
+        }
+        attaches.set(0);
+        detaches.set(0);
+        release.countDown();
+        drain();
+
+        assertThat(seen).hasSize(10).containsOnly("Brian");
+        assertThat(attaches.get()).isEqualTo(1);
+        assertThat(detaches.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSwapsWhenContextChanges() throws Exception {
+        final Ctx brian = Ctx.empty().with(NAME, "Brian");
+        final Ctx eric = Ctx.empty().with(NAME, "Eric");
+        final List<String> seen = new CopyOnWriteArrayList<>();
+        final Runnable record = () -> seen.add(Ctx.fromThread().flatMap((c) -> c.get(NAME)).orElse("none"));
+
+        final CountDownLatch release = blockWorker();
+        brian.runAttached(() -> this.pool.execute(record));
+        brian.runAttached(() -> this.pool.execute(record));
+        this.pool.execute(record);
+        eric.runAttached(() -> this.pool.execute(record));
+        brian.runAttached(() -> this.pool.execute(record));
+        release.countDown();
+        drain();
+
+        assertThat(seen).containsExactly("Brian", "Brian", "none", "Eric", "Brian");
+    }
+
+    @Test
+    public void testDetachesWhenQueueIsEmpty() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        final CountDownLatch detached = new CountDownLatch(1);
+        ctx.onDetach(detached::countDown);
+
+        ctx.runAttached(() -> this.pool.execute(() -> {
+        }));
+
+        assertThat(detached.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    /**
+     * Occupies the single worker until the returned latch is released, so that the tasks submitted
+     * meanwhile queue up behind it.
+     */
+    private CountDownLatch blockWorker() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.pool.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        return release;
+    }
+
+    private void drain() throws Exception {
+        this.pool.submit(() -> {
+        }).get(1, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.MDC;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per task cost of {@link Ctx#createPropagatingExecutor(ExecutorService)} against
+ * {@link Ctx#createStickyPropagatingExecutor(int)} on a single worker, when every context submits
+ * {@link #tasksPerCtx} tasks in a row. Each context copies a request id into the MDC on attach and
+ * clears it on detach, as a logging integration would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StickyExecutorBenchmark {
+
+    private static final int TASKS = 1000;
+    private static final Ctx.Key<String> REQUEST_ID = Ctx.key("request-id", String.class);
+
+    @Param({"1", "10", "1000"})
+    public int tasksPerCtx;
+
+    private ExecutorService propagating;
+    private ExecutorService sticky;
+    private Ctx[] contexts;
+    private Runnable task;
+
+    @Setup
+    public void setUp() {
+        this.propagating = Ctx.createPropagatingExecutor(Executors.newSingleThreadExecutor());
+        this.sticky = Ctx.createStickyPropagatingExecutor(1);
+        this.contexts = new Ctx[TASKS / this.tasksPerCtx];
+        for (int i = 0; i < this.contexts.length; i++) {
+            final Ctx ctx = Ctx.empty().with(REQUEST_ID, "request-" + i);
+            ctx.onAttach(() -> MDC.put("request-id", ctx.getOrNull(REQUEST_ID)));
+            ctx.onDetach(() -> MDC.remove("request-id"));
+            this.contexts[i] = ctx;
+        }
+        this.task = () -> MDC.get("request-id");
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.propagating.shutdownNow();
+        this.sticky.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void propagating() throws InterruptedException {
+        run(this.propagating);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void sticky() throws InterruptedException {
+        run(this.sticky);
+    }
+
+    private void run(final ExecutorService pool) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        for (Ctx ctx : this.contexts) {
+            ctx.runAttached(() -> {
+                for (int i = 0; i < this.tasksPerCtx; i++) {
+                    pool.execute(() -> {
+                        this.task.run();
+                        done.countDown();
+                    });
+                }
+            });
+        }
+        done.await();
+    }
+}
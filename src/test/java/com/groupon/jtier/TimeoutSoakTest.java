@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Requests which finish well before their deadline must not leave their timeout queued.
+ */
+public class TimeoutSoakTest {
+
+    private static final int ROUNDS = 20;
+    private static final int REQUESTS_PER_ROUND = 10_000;
+
+    @Test
+    public void testWheelStaysFlat() throws Exception {
+        // a small, fast wheel, so that every bucket comes round many times during the test
+        final TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 16, r -> {
+            final Thread t = new Thread(r, "soak-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // a live timeout keeps the worker ticking, so cancelled entries are not just dropped when it idles
+        final Life keeper = armedTimeout(wheel);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final Life[] lives = new Life[REQUESTS_PER_ROUND];
+            for (int i = 0; i < REQUESTS_PER_ROUND; i++) {
+                lives[i] = armedTimeout(wheel);
+                if (i % 2 == 0) {
+                    // cancelled while still queued
+                    lives[i].cancel();
+                }
+            }
+            // let the worker move the rest into their buckets before they are cancelled
+            Thread.sleep(5);
+            for (Life life : lives) {
+                life.cancel();
+            }
+
+            awaitRetained(wheel, 1);
+            assertThat(wheel.pending()).isEqualTo(1);
+        }
+        assertThat(keeper.isCancelled()).isFalse();
+    }
+
+    @Test
+    public void testExecutorQueueStaysFlat() throws Exception {
+        final ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1);
+        pool.setRemoveOnCancelPolicy(true);
+        try {
+            final Ctx root = Ctx.empty();
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < REQUESTS_PER_ROUND; i++) {
+                    root.withTimeout(30, TimeUnit.SECONDS, pool).cancel();
+                }
+                assertThat(pool.getQueue()).isEmpty();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Life armedTimeout(final TimerWheel wheel) {
+        final Life life = new Life(Optional.empty());
+        life.startTimeout(30, TimeUnit.SECONDS, wheel);
+        // a listener arms the timer
+        life.onCancel(() -> { });
+        return life;
+    }
+
+    /**
+     * Cancelled entries are unlinked as the worker reaches them, within a turn of the wheel.
+     */
+    private static void awaitRetained(final TimerWheel wheel, final long expected) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (wheel.retained() > expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(wheel.retained()).isEqualTo(expected);
+    }
+}
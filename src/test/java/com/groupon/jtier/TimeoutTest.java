@@ -18,6 +18,7 @@ import org.skife.clocked.ClockedExecutorService;
 
 import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -33,6 +34,7 @@ public class TimeoutTest {
 
         clock.advance(2, TimeUnit.SECONDS).get();
         assertThat(ctx.isCancelled()).isTrue();
+        assertThat(ctx.getCancellationCause()).contains(CancellationCause.TIMEOUT);
     }
 
     @Test
@@ -56,4 +58,133 @@ public class TimeoutTest {
 
     }
 
+    @Test
+    public void testDeadlineWithoutListenersSchedulesNothing() throws Exception {
+        final TimerWheel wheel = wheel();
+        final Life life = new Life(Optional.empty());
+        life.startTimeout(20, TimeUnit.MILLISECONDS, wheel);
+
+        assertThat(wheel.pending()).isZero();
+        assertThat(life.isCancelled()).isFalse();
+
+        Thread.sleep(30);
+        assertThat(life.isCancelled()).isTrue();
+        assertThat(wheel.pending()).isZero();
+    }
+
+    @Test
+    public void testDeadlineArmsOnFirstListener() throws Exception {
+        final TimerWheel wheel = wheel();
+        final Life life = new Life(Optional.empty());
+        life.startTimeout(20, TimeUnit.MILLISECONDS, wheel);
+
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        life.onCancel(cancelled::countDown);
+        life.onCancel(() -> { });
+        assertThat(wheel.pending()).isEqualTo(1);
+
+        assertThat(cancelled.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testDeadlineArmedByDescendantListener() throws Exception {
+        final TimerWheel wheel = wheel();
+        final Life parent = new Life(Optional.empty());
+        parent.startTimeout(20, TimeUnit.MILLISECONDS, wheel);
+        final Life child = new Life(Optional.of(parent));
+        final Life grandchild = new Life(Optional.of(child));
+        assertThat(wheel.pending()).isZero();
+
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        grandchild.onCancel(cancelled::countDown);
+        assertThat(wheel.pending()).isEqualTo(1);
+
+        assertThat(cancelled.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(child.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testChildSeesExpiredDeadline() throws Exception {
+        final Ctx ctx = Ctx.empty().withTimeout(10, TimeUnit.MILLISECONDS);
+        final Ctx child = ctx.createChild();
+
+        Thread.sleep(20);
+        assertThat(child.isCancelled()).isTrue();
+        assertThat(ctx.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testRemainingNanos() throws Exception {
+        assertThat(Ctx.empty().remainingNanos()).isEqualTo(Long.MAX_VALUE);
+
+        final Ctx ctx = Ctx.empty().withTimeout(1, TimeUnit.HOURS);
+        assertThat(ctx.remainingNanos()).isPositive().isLessThanOrEqualTo(TimeUnit.HOURS.toNanos(1));
+
+        final Ctx expired = Ctx.empty().withTimeout(1, TimeUnit.NANOSECONDS);
+        Thread.sleep(1);
+        assertThat(expired.remainingNanos()).isZero();
+    }
+
+    @Test
+    public void testVeryLongTimeoutDoesNotOverflow() throws Exception {
+        final Ctx ctx = Ctx.empty().withTimeout(Long.MAX_VALUE, TimeUnit.DAYS);
+        assertThat(ctx.isCancelled()).isFalse();
+        assertThat(ctx.remainingNanos()).isPositive();
+    }
+
+    @Test
+    public void testChildInheritsDeadline() throws Exception {
+        final Ctx parent = Ctx.empty().withTimeout(1, TimeUnit.HOURS);
+        final Ctx child = parent.createChild();
+
+        assertThat(child.getApproximateTimeRemaining()).isPresent();
+        final long parentRemaining = parent.remainingNanos();
+        assertThat(child.remainingNanos()).isLessThanOrEqualTo(parentRemaining);
+    }
+
+    @Test
+    public void testLaterChildTimeoutKeepsInheritedDeadline() throws Exception {
+        final TimerWheel wheel = wheel();
+        final Life parent = new Life(Optional.empty());
+        parent.startTimeout(20, TimeUnit.MILLISECONDS, wheel);
+        final Life child = new Life(Optional.of(parent));
+        child.startTimeout(1, TimeUnit.HOURS, wheel);
+
+        assertThat(child.remainingNanos()).isLessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        child.onCancel(cancelled::countDown);
+        // only the parent's timer
+        assertThat(wheel.pending()).isEqualTo(1);
+        assertThat(cancelled.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testEarlierChildTimeoutWins() throws Exception {
+        final Ctx parent = Ctx.empty().withTimeout(1, TimeUnit.HOURS);
+        final Ctx child = parent.withTimeout(10, TimeUnit.MILLISECONDS);
+
+        assertThat(child.remainingNanos()).isLessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+        Thread.sleep(20);
+        assertThat(child.isCancelled()).isTrue();
+        assertThat(parent.isCancelled()).isFalse();
+    }
+
+    @Test
+    public void testGrandchildSeesInheritedExpiry() throws Exception {
+        final Ctx ctx = Ctx.empty().withTimeout(10, TimeUnit.MILLISECONDS);
+        final Ctx grandchild = ctx.createChild().createChild();
+
+        Thread.sleep(20);
+        assertThat(grandchild.isCancelled()).isTrue();
+        assertThat(grandchild.getCancellationCause()).contains(CancellationCause.TIMEOUT);
+    }
+
+    private static TimerWheel wheel() {
+        return new TimerWheel(10, TimeUnit.MILLISECONDS, 64, r -> {
+            final Thread t = new Thread(r, "timeout-test");
+            t.setDaemon(true);
+            return t;
+        });
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedule a timeout and cancel it before it fires, the common case for a request deadline, from
+ * many threads at once. Compares the {@link TimerWheel} with the single threaded
+ * {@link ScheduledThreadPoolExecutor} it replaced as the default for {@link Ctx#withTimeout(long, TimeUnit)}.
+ * <p>
+ * Run {@link #main(String[])} to measure with 1, 4, 16 and 64 submitting threads, or pass {@code -t}
+ * to the JMH runner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class TimerWheelBenchmark {
+
+    private static final Runnable NOOP = () -> {
+    };
+
+    @Param({"wheel", "executor"})
+    public String scheduler;
+
+    private TimerWheel wheel;
+    private ScheduledThreadPoolExecutor executor;
+
+    @Setup
+    public void setUp() {
+        if ("wheel".equals(this.scheduler)) {
+            this.wheel = new TimerWheel(10, TimeUnit.MILLISECONDS, 512, r -> {
+                final Thread t = new Thread(r, "benchmark-timer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        else {
+            this.executor = new ScheduledThreadPoolExecutor(1);
+            this.executor.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void scheduleAndCancel() {
+        if (this.wheel != null) {
+            this.wheel.schedule(NOOP, 30, TimeUnit.SECONDS).dispose();
+        }
+        else {
+            final ScheduledFuture<?> f = this.executor.schedule(NOOP, 30, TimeUnit.SECONDS);
+            f.cancel(false);
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            new Runner(new OptionsBuilder().include(TimerWheelBenchmark.class.getSimpleName())
+                                           .threads(threads)
+                                           .build()).run();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimerWheelTest {
+
+    private TimerWheel wheel;
+
+    @Before
+    public void setUp() {
+        // small wheel, so that delays of more than 80ms take several rounds
+        this.wheel = new TimerWheel(10, TimeUnit.MILLISECONDS, 8, r -> {
+            final Thread t = new Thread(r, "timer-wheel-test");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Test
+    public void testFires() throws Exception {
+        final CountDownLatch fired = new CountDownLatch(1);
+        this.wheel.schedule(fired::countDown, 20, TimeUnit.MILLISECONDS);
+
+        assertThat(fired.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(this.wheel.pending()).isZero();
+    }
+
+    @Test
+    public void testNeverFiresEarly() throws Exception {
+        final CountDownLatch fired = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        this.wheel.schedule(fired::countDown, 250, TimeUnit.MILLISECONDS);
+
+        assertThat(fired.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    @Test
+    public void testDisposeCancels() throws Exception {
+        final AtomicBoolean fired = new AtomicBoolean(false);
+        final Disposable d = this.wheel.schedule(() -> fired.set(true), 20, TimeUnit.MILLISECONDS);
+        d.dispose();
+
+        assertThat(this.wheel.pending()).isZero();
+        Thread.sleep(100);
+        assertThat(fired.get()).isFalse();
+    }
+
+    @Test
+    public void testFiresInDeadlineOrder() throws Exception {
+        final CountDownLatch first = new CountDownLatch(1);
+        final CountDownLatch second = new CountDownLatch(1);
+        this.wheel.schedule(second::countDown, 200, TimeUnit.MILLISECONDS);
+        this.wheel.schedule(first::countDown, 30, TimeUnit.MILLISECONDS);
+
+        assertThat(first.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(second.getCount()).isEqualTo(1);
+        assertThat(second.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testWithTimeoutUsesWheel() throws Exception {
+        final Ctx ctx = Ctx.empty().withTimeout(20, TimeUnit.MILLISECONDS);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        ctx.onCancel(cancelled::countDown);
+
+        assertThat(cancelled.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(ctx.isCancelled()).isTrue();
+    }
+}
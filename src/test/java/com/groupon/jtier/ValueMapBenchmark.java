@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building and reading a chain of {@link Ctx#with(Ctx.Key, Object)} calls against the
+ * copy-the-whole-HashMap strategy Ctx used to have.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueMapBenchmark {
+
+    @Param({"1", "8", "32", "128"})
+    public int keys;
+
+    private Ctx.Key<?>[] keyArray;
+    private ValueMap trie;
+    private Map<Ctx.Key<?>, Object> hashMap;
+
+    @Setup
+    public void setUp() {
+        this.keyArray = new Ctx.Key<?>[this.keys];
+        for (int i = 0; i < this.keys; i++) {
+            this.keyArray[i] = Ctx.key("key-" + i, String.class);
+        }
+        this.trie = buildTrie();
+        this.hashMap = buildHashMap();
+    }
+
+    @Benchmark
+    public ValueMap withChainTrie() {
+        return buildTrie();
+    }
+
+    @Benchmark
+    public Map<Ctx.Key<?>, Object> withChainHashMapCopy() {
+        return buildHashMap();
+    }
+
+    @Benchmark
+    public Object getTrie() {
+        return this.trie.get(this.keyArray[this.keys / 2]);
+    }
+
+    @Benchmark
+    public Object getHashMap() {
+        final Ctx.Key<?> key = this.keyArray[this.keys / 2];
+        return this.hashMap.containsKey(key) ? this.hashMap.get(key) : null;
+    }
+
+    private ValueMap buildTrie() {
+        ValueMap map = ValueMap.EMPTY;
+        for (final Ctx.Key<?> key : this.keyArray) {
+            map = map.with(key, "value");
+        }
+        return map;
+    }
+
+    private Map<Ctx.Key<?>, Object> buildHashMap() {
+        Map<Ctx.Key<?>, Object> map = new HashMap<>();
+        for (final Ctx.Key<?> key : this.keyArray) {
+            final Map<Ctx.Key<?>, Object> next = new HashMap<>();
+            next.putAll(map);
+            next.put(key, "value");
+            map = next;
+        }
+        return map;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ValueMapTest {
+
+    @Test
+    public void testWithLeavesOriginalUnchanged() throws Exception {
+        final Ctx.Key<String> a = Ctx.key("a", String.class);
+        final ValueMap one = ValueMap.EMPTY.with(a, "1");
+        final ValueMap two = one.with(a, "2");
+
+        assertThat(one.get(a)).isEqualTo("1");
+        assertThat(two.get(a)).isEqualTo("2");
+        assertThat(two.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testManyKeys() throws Exception {
+        ValueMap map = ValueMap.EMPTY;
+        final Map<Ctx.Key<?>, Object> expected = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            final Ctx.Key<Integer> key = Ctx.key("key-" + i, Integer.class);
+            map = map.with(key, i);
+            expected.put(key, i);
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (Map.Entry<Ctx.Key<?>, Object> entry : expected.entrySet()) {
+            assertThat(map.get(entry.getKey())).isEqualTo(entry.getValue());
+        }
+
+        final Map<Ctx.Key<?>, Object> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertThat(visited).isEqualTo(expected);
+        assertThat(map.hashCode()).isEqualTo(expected.hashCode());
+    }
+
+    @Test
+    public void testKeysAreInterned() throws Exception {
+        final Ctx.Key<String> a = Ctx.key("interned", String.class);
+        final Ctx.Key<String> b = Ctx.key("interned", String.class);
+        final Ctx.Key<Integer> c = Ctx.key("interned", Integer.class);
+
+        assertThat(a).isSameAs(b);
+        assertThat(a.slot).isNotEqualTo(c.slot);
+
+        final ValueMap map = ValueMap.EMPTY.with(a, "string").with(c, 7);
+        assertThat(map.get(b)).isEqualTo("string");
+        assertThat(map.get(c)).isEqualTo(7);
+    }
+
+    @Test
+    public void testSlotsSharingLowBits() throws Exception {
+        // slots 32 apart share a first level branch and must split into a deeper node
+        final Ctx.Key<?>[] keys = new Ctx.Key<?>[100];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Ctx.key("split-" + i, String.class);
+        }
+
+        ValueMap map = ValueMap.EMPTY;
+        for (int i = keys.length - 1; i >= 0; i -= 32) {
+            map = map.with(keys[i], "v" + i);
+        }
+        for (int i = keys.length - 1; i >= 0; i -= 32) {
+            assertThat(map.get(keys[i])).isEqualTo("v" + i);
+        }
+        assertThat(map.get(keys[keys.length - 2])).isNull();
+        assertThat(map.containsKey(keys[keys.length - 2])).isFalse();
+    }
+
+    @Test
+    public void testEqualityIgnoresInsertionOrder() throws Exception {
+        final Ctx.Key<String> a = Ctx.key("a", String.class);
+        final Ctx.Key<String> b = Ctx.key("b", String.class);
+
+        final ValueMap ab = ValueMap.EMPTY.with(a, "1").with(b, "2");
+        final ValueMap ba = ValueMap.EMPTY.with(b, "2").with(a, "1");
+
+        assertThat(ab).isEqualTo(ba);
+        assertThat(ab.hashCode()).isEqualTo(ba.hashCode());
+        assertThat(ab).isNotEqualTo(ba.with(a, "3"));
+    }
+
+    @Test
+    public void testWithAllMatchesWithChain() throws Exception {
+        final Ctx.Key<?>[] keys = new Ctx.Key<?>[200];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Ctx.key("batch-" + i, Integer.class);
+        }
+        final Random random = new Random(42);
+
+        for (int round = 0; round < 200; round++) {
+            ValueMap base = ValueMap.EMPTY;
+            for (int i = random.nextInt(20); i > 0; i--) {
+                base = base.with(keys[random.nextInt(keys.length)], -i);
+            }
+
+            final int count = random.nextInt(40);
+            final Ctx.Key<?>[] batchKeys = new Ctx.Key<?>[count];
+            final Object[] batchValues = new Object[count];
+            ValueMap chained = base;
+            for (int i = 0; i < count; i++) {
+                batchKeys[i] = keys[random.nextInt(keys.length)];
+                batchValues[i] = i;
+                chained = chained.with(batchKeys[i], i);
+            }
+
+            final ValueMap batched = base.withAll(batchKeys, batchValues, count);
+            assertThat(batched).isEqualTo(chained);
+            assertThat(batched.size()).isEqualTo(chained.size());
+            for (Ctx.Key<?> key : keys) {
+                assertThat(batched.get(key)).isEqualTo(chained.get(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.filter;
+
+import com.groupon.jtier.Ctx;
+import com.groupon.jtier.KeyCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Per request overhead of {@link CtxFilter} copying {@link #headers} request headers into the request
+ * context: with no mappings, with the compiled extraction pipeline, and with the hand written second
+ * filter services used to need, which calls {@link Ctx#with(Ctx.Key, Object)} once per header.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CtxFilterBenchmark {
+
+    @Param({"1", "5", "15"})
+    public int headers;
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private final FilterChain chain = (req, res) -> {
+    };
+
+    private String[] names;
+    private Ctx.Key<String>[] keys;
+    private CtxFilter bare;
+    private CtxFilter extracting;
+    private Filter handWritten;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        this.names = new String[this.headers];
+        this.keys = new Ctx.Key[this.headers];
+        this.bare = new CtxFilter();
+        this.extracting = new CtxFilter();
+        for (int i = 0; i < this.headers; i++) {
+            this.names[i] = "X-Header-" + i;
+            this.keys[i] = Ctx.key("header-" + i, String.class);
+            this.request.addHeader(this.names[i], "value-" + i);
+            this.extracting.extract(this.names[i], this.keys[i], KeyCodec.strings());
+        }
+        this.bare.init(null);
+        this.extracting.init(null);
+        this.handWritten = new HeaderFilter();
+    }
+
+    @Benchmark
+    public void noMappings() throws Exception {
+        this.bare.doFilter(this.request, this.response, this.chain);
+    }
+
+    @Benchmark
+    public void extractionPipeline() throws Exception {
+        this.extracting.doFilter(this.request, this.response, this.chain);
+    }
+
+    @Benchmark
+    public void withPerHeader() throws Exception {
+        this.bare.doFilter(this.request, this.response, (req, res) -> this.handWritten.doFilter(req, res, this.chain));
+    }
+
+    /**
+     * The second filter a service would write: reads each header and re-attaches the grown context.
+     */
+    private final class HeaderFilter implements Filter {
+        @Override
+        public void init(final javax.servlet.FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(final ServletRequest req, final ServletResponse res, final FilterChain next)
+                throws IOException, ServletException {
+            Ctx ctx = Ctx.fromThread().get();
+            for (int i = 0; i < CtxFilterBenchmark.this.headers; i++) {
+                final String value = ((HttpServletRequest) req).getHeader(CtxFilterBenchmark.this.names[i]);
+                if (value != null) {
+                    ctx = ctx.with(CtxFilterBenchmark.this.keys[i], value);
+                }
+            }
+            ctx.attachToThread();
+            next.doFilter(req, res);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.filter;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CtxFilterJettyTest {
+
+    private static final int REQUESTS = 50;
+
+    @Test
+    public void testDetachingModeLeavesNoStaleAttachments() throws Exception {
+        try (CtxFilterServer server = new CtxFilterServer(new CtxFilter().detachAfterRequest())) {
+            for (int i = 0; i < REQUESTS; i++) {
+                assertThat(server.get("/sync")).isEqualTo("attached");
+                assertThat(server.get("/async")).isEqualTo("attached");
+                assertThat(server.get("/dispatch")).isEqualTo("attached");
+            }
+
+            awaitCancelled(server, REQUESTS * 3);
+            assertThat(server.stale()).isZero();
+        }
+    }
+
+    @Test
+    public void testDetachingModeCleansAnAsyncDispatchThread() throws Exception {
+        try (CtxFilterServer server = new CtxFilterServer(new CtxFilter().detachAfterRequest())) {
+            for (int i = 0; i < REQUESTS; i++) {
+                assertThat(server.get("/stray-dispatch")).isEqualTo("attached");
+            }
+
+            awaitCancelled(server, REQUESTS);
+            assertThat(server.leftAttached()).isZero();
+        }
+    }
+
+    @Test
+    public void testDefaultModeLeavesContextsAttached() throws Exception {
+        try (CtxFilterServer server = new CtxFilterServer(new CtxFilter())) {
+            for (int i = 0; i < REQUESTS; i++) {
+                assertThat(server.get("/sync")).isEqualTo("attached");
+            }
+
+            awaitCancelled(server, REQUESTS);
+            assertThat(server.stale()).isPositive();
+        }
+    }
+
+    /**
+     * Async contexts are cancelled by a listener which may run after the response reached the client.
+     */
+    private static void awaitCancelled(final CtxFilterServer server, final int expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.cancelled() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(server.cancelled()).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load run of {@link CtxFilter} in embedded Jetty, comparing the default mode with
+ * {@link CtxFilter#detachAfterRequest()}. For each mode and path it reports the requests served per second
+ * by concurrent clients, and how many requests found a context left attached to their container thread.
+ * <p>
+ * Run with {@code main [clients] [seconds]}; the second of the two rounds is the one to read. It is not a JMH benchmark since the cost is dominated by the
+ * container and the loopback connection.
+ */
+public final class CtxFilterLoadBenchmark {
+
+    private static final String[] PATHS = {"/sync", "/async", "/dispatch"};
+
+    private CtxFilterLoadBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        // the test classpath routes Jetty's logging into slf4j-test, which records every event
+        System.setProperty("org.eclipse.jetty.util.log.class", "org.eclipse.jetty.util.log.StdErrLog");
+
+        System.out.printf("%-10s %-10s %12s %10s %10s%n", "mode", "path", "requests/s", "requests", "stale");
+        for (int round = 0; round < 2; round++) {
+            for (String path : PATHS) {
+                run("default", new CtxFilter(), path, clients, seconds);
+                run("detaching", new CtxFilter().detachAfterRequest(), path, clients, seconds);
+            }
+        }
+    }
+
+    private static void run(final String mode,
+                            final CtxFilter filter,
+                            final String path,
+                            final int clients,
+                            final long seconds) throws Exception {
+        try (CtxFilterServer server = new CtxFilterServer(filter)) {
+            // warm up the container, the connections and the filter
+            load(server, path, clients, TimeUnit.SECONDS.toNanos(1));
+            final int staleBefore = server.stale();
+
+            final long nanos = TimeUnit.SECONDS.toNanos(seconds);
+            final long requests = load(server, path, clients, nanos);
+            System.out.printf("%-10s %-10s %12.0f %10d %10d%n",
+                              mode, path, requests * 1e9 / nanos, requests, server.stale() - staleBefore);
+        }
+    }
+
+    private static long load(final CtxFilterServer server,
+                             final String path,
+                             final int clients,
+                             final long nanos) throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            final long end = System.nanoTime() + nanos;
+            final List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                results.add(pool.submit(() -> {
+                    long requests = 0;
+                    while (System.nanoTime() < end) {
+                        server.get(path);
+                        requests++;
+                    }
+                    return requests;
+                }));
+            }
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get();
+            }
+            return total;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.filter;
+
+import com.groupon.jtier.Ctx;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Embedded Jetty serving a {@link CtxFilter}, for tests and load runs against a real container.
+ * <p>
+ * A filter in front of the {@link CtxFilter} counts the requests which arrive on a thread that still has a
+ * context attached. The servlets answer "attached" or "detached" for whether the thread producing the
+ * response has the request context, and count the request contexts cancelled once the response is sent.
+ * <ul>
+ * <li>{@code /sync} answers on the container thread.</li>
+ * <li>{@code /async} answers from an {@link AsyncContext#start(Runnable)} task.</li>
+ * <li>{@code /dispatch} starts async processing and answers from the async dispatch of the request.</li>
+ * <li>{@code /stray-dispatch} is {@code /dispatch} with an unrelated context attached to the thread when the
+ * async dispatch reaches the {@link CtxFilter}, as if left there by an earlier request. It counts the async
+ * dispatches after which the thread still has a context.</li>
+ * </ul>
+ */
+class CtxFilterServer implements AutoCloseable {
+
+    private final Server server;
+    private final AtomicInteger stale = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private final AtomicInteger leftAttached = new AtomicInteger();
+
+    CtxFilterServer(final CtxFilter filter) throws Exception {
+        this.server = new Server(0);
+        final ServletContextHandler handler = new ServletContextHandler();
+        final EnumSet<DispatcherType> dispatches = EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC);
+        handler.addFilter(new FilterHolder(new StaleCheck()), "/*", EnumSet.of(DispatcherType.REQUEST));
+        handler.addFilter(new FilterHolder(new StrayContext()), "/stray-dispatch", EnumSet.of(DispatcherType.ASYNC));
+        handler.addFilter(new FilterHolder(filter), "/*", dispatches);
+        handler.addServlet(new ServletHolder(new Sync()), "/sync");
+        final ServletHolder async = new ServletHolder(new Async());
+        async.setAsyncSupported(true);
+        handler.addServlet(async, "/async");
+        final ServletHolder dispatch = new ServletHolder(new Dispatch());
+        dispatch.setAsyncSupported(true);
+        handler.addServlet(dispatch, "/dispatch");
+        handler.addServlet(dispatch, "/stray-dispatch");
+        this.server.setHandler(handler);
+        this.server.start();
+    }
+
+    /**
+     * Requests which found a context attached to their thread before reaching the {@link CtxFilter}.
+     */
+    int stale() {
+        return this.stale.get();
+    }
+
+    /**
+     * Request contexts seen by the servlets which have since been cancelled.
+     */
+    int cancelled() {
+        return this.cancelled.get();
+    }
+
+    /**
+     * Async dispatches of {@code /stray-dispatch} which left a context attached to their thread.
+     */
+    int leftAttached() {
+        return this.leftAttached.get();
+    }
+
+    String get(final String path) throws IOException {
+        final int port = ((ServerConnector) this.server.getConnectors()[0]).getLocalPort();
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[256];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        this.server.stop();
+    }
+
+    private void respond(final ServletResponse response) throws IOException {
+        final Ctx ctx = Ctx.currentOrNull();
+        if (ctx != null) {
+            ctx.onCancel(this.cancelled::incrementAndGet);
+        }
+        response.setContentType("text/plain");
+        response.getWriter().write(ctx == null ? "detached" : "attached");
+    }
+
+    private final class StaleCheck implements Filter {
+        @Override
+        public void init(final FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(final ServletRequest request,
+                             final ServletResponse response,
+                             final FilterChain chain) throws IOException, ServletException {
+            if (Ctx.currentOrNull() != null) {
+                CtxFilterServer.this.stale.incrementAndGet();
+            }
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    private final class StrayContext implements Filter {
+        @Override
+        public void init(final FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(final ServletRequest request,
+                             final ServletResponse response,
+                             final FilterChain chain) throws IOException, ServletException {
+            Ctx.empty().attachToThread();
+            try {
+                chain.doFilter(request, response);
+            }
+            finally {
+                if (Ctx.currentOrNull() != null) {
+                    CtxFilterServer.this.leftAttached.incrementAndGet();
+                    Ctx.cleanThread();
+                }
+            }
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    private final class Sync extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+            respond(resp);
+        }
+    }
+
+    private final class Async extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) {
+            final AsyncContext async = req.startAsync();
+            async.start(() -> {
+                try {
+                    respond(async.getResponse());
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                finally {
+                    async.complete();
+                }
+            });
+        }
+    }
+
+    private final class Dispatch extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+            if (req.getDispatcherType() == DispatcherType.ASYNC) {
+                respond(resp);
+            }
+            else {
+                req.startAsync().dispatch();
+            }
+        }
+    }
+}
@@ -14,6 +14,8 @@
 package com.groupon.jtier.filter;
 
 import com.groupon.jtier.Ctx;
+import com.groupon.jtier.DeadlineHeader;
+import com.groupon.jtier.KeyCodec;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -23,14 +25,20 @@ import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
 import javax.servlet.GenericServlet;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 
 public class CtxFilterTest {
@@ -44,6 +52,7 @@ public class CtxFilterTest {
         req = new MockHttpServletRequest();
         res = new MockHttpServletResponse();
         ctx = new AtomicReference<>();
+        Ctx.cleanThread();
     }
 
     @Test
@@ -160,4 +169,145 @@ public class CtxFilterTest {
         // Verify
         assertThat(ctx.get().isCancelled()).isTrue();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void appliesTheCallersDeadline() throws Exception {
+        // Configure
+        final CtxFilter filter = new CtxFilter(Ctx.empty(), DeadlineHeader.create().withSlack(Duration.ofMillis(100)));
+
+        final MockFilterChain chain = new MockFilterChain(new GenericServlet() {
+            @Override
+            public void service(final ServletRequest req,
+                                final ServletResponse res) throws ServletException, IOException {
+                ctx.set(Ctx.fromThread().get());
+
+                assertThat(ctx.get().remainingNanos()).isBetween(TimeUnit.MILLISECONDS.toNanos(1_500),
+                                                                 TimeUnit.MILLISECONDS.toNanos(1_900));
+            }
+        });
+
+        // Run
+        req.addHeader("X-Request-Timeout", "2000");
+        filter.doFilter(req, res, chain);
+
+        // Verify
+        assertThat(ctx.get().isCancelled()).isTrue();
+    }
+
+    @Test
+    public void extractsMappedHeaders() throws Exception {
+        // Configure
+        final Ctx.Key<String> CLIENT = Ctx.key("client", String.class);
+        final Ctx.Key<UUID> REQUEST_ID = Ctx.key("request-id", UUID.class);
+        final Ctx.Key<Integer> ATTEMPT = Ctx.key("attempt", Integer.class);
+        final UUID id = UUID.randomUUID();
+
+        final CtxFilter filter = new CtxFilter().extract("X-Client", CLIENT)
+                                                .extract("X-Request-Id", REQUEST_ID, KeyCodec.of(UUID::toString, UUID::fromString))
+                                                .extract("X-Attempt", ATTEMPT, KeyCodec.ints());
+        filter.init(null);
+
+        final MockFilterChain chain = new MockFilterChain(new GenericServlet() {
+            @Override
+            public void service(final ServletRequest req,
+                                final ServletResponse res) throws ServletException, IOException {
+                ctx.set(Ctx.fromThread().get());
+            }
+        });
+
+        // Run
+        req.addHeader("X-Client", "checkout");
+        req.addHeader("X-Request-Id", id.toString());
+        req.addHeader("X-Attempt", "not a number");
+        filter.doFilter(req, res, chain);
+
+        // Verify
+        assertThat(ctx.get().get(CLIENT)).contains("checkout");
+        assertThat(ctx.get().get(REQUEST_ID)).contains(id);
+        assertThat(ctx.get().get(ATTEMPT)).isEmpty();
+        assertThat(ctx.get().isCancelled()).isTrue();
+        assertThatThrownBy(() -> filter.extract("X-Late", CLIENT)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void detachingModeRestoresTheIncludingRequestsContext() throws Exception {
+        // Configure
+        final CtxFilter filter = new CtxFilter().detachAfterRequest();
+        final Ctx outer = Ctx.empty();
+
+        final MockFilterChain chain = new MockFilterChain(new GenericServlet() {
+            @Override
+            public void service(final ServletRequest req,
+                                final ServletResponse res) throws ServletException, IOException {
+                ctx.set(Ctx.fromThread().get());
+            }
+        });
+
+        // Run
+        req.setDispatcherType(DispatcherType.INCLUDE);
+        req.setAttribute(CtxFilter.CTX_ATTRIBUTE, outer);
+        outer.attachToThread();
+        try {
+            filter.doFilter(req, res, chain);
+
+            // Verify
+            assertThat(ctx.get()).isSameAs(outer);
+            assertThat(Ctx.currentOrNull()).isSameAs(outer);
+            assertThat(outer.isCancelled()).isFalse();
+        }
+        finally {
+            Ctx.cleanThread();
+        }
+    }
+
+    @Test
+    public void detachingModeLeavesNoStaleContextAfterARequest() throws Exception {
+        // Configure
+        final CtxFilter filter = new CtxFilter().detachAfterRequest();
+        final Ctx stale = Ctx.empty();
+        final AtomicReference<Boolean> reattached = new AtomicReference<>(false);
+
+        final MockFilterChain chain = new MockFilterChain(new GenericServlet() {
+            @Override
+            public void service(final ServletRequest req,
+                                final ServletResponse res) throws ServletException, IOException {
+                ctx.set(Ctx.fromThread().get());
+            }
+        });
+
+        // Run
+        stale.attachToThread();
+        stale.onAttach(() -> reattached.set(true));
+        filter.doFilter(req, res, chain);
+
+        // Verify
+        assertThat(ctx.get()).isNotSameAs(stale);
+        assertThat(ctx.get().isCancelled()).isTrue();
+        assertThat(Ctx.currentOrNull()).isNull();
+        assertThat(reattached.get()).isFalse();
+    }
+
+    @Test
+    public void detachingModeKeepsOneAsyncContextPerRequest() throws Exception {
+        // Configure
+        final CtxFilter filter = new CtxFilter().detachAfterRequest();
+        final AtomicReference<AsyncContext> started = new AtomicReference<>();
+
+        final MockFilterChain chain = new MockFilterChain(new GenericServlet() {
+            @Override
+            public void service(final ServletRequest req,
+                                final ServletResponse res) throws ServletException, IOException {
+                started.set(req.startAsync());
+                assertThat(req.getAsyncContext()).isSameAs(started.get());
+            }
+        });
+
+        // Run
+        req.setAsyncSupported(true);
+        filter.doFilter(req, res, chain);
+
+        // Verify
+        assertThat(started.get()).isInstanceOf(AttachingAsyncContext.class);
+        assertThat(Ctx.currentOrNull()).isNull();
+    }
+}
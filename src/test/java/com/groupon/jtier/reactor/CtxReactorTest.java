@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.reactor;
+
+import com.groupon.jtier.Ctx;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CtxReactorTest {
+
+    private static final Ctx.Key<String> NAME = Ctx.key("name", String.class);
+
+    @Before
+    public void setUp() throws Exception {
+        Ctx.cleanThread();
+        CtxReactor.install();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CtxReactor.uninstall();
+        Ctx.cleanThread();
+    }
+
+    @Test
+    public void testContextFollowsSchedulers() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        try (Ctx _i = ctx.attachToThread()) {
+            final String names = Mono.fromCallable(CtxReactorTest::name)
+                                     .subscribeOn(Schedulers.elastic())
+                                     .publishOn(Schedulers.parallel())
+                                     .map((first) -> first + "," + name())
+                                     .delayElement(Duration.ofMillis(1))
+                                     .map((second) -> second + "," + name())
+                                     .block();
+            assertThat(names).isEqualTo("Brian,Brian,Brian");
+        }
+    }
+
+    @Test
+    public void testUninstallRemovesHook() throws Exception {
+        CtxReactor.uninstall();
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        try (Ctx _i = ctx.attachToThread()) {
+            final String name = Mono.fromCallable(CtxReactorTest::name)
+                                    .subscribeOn(Schedulers.elastic())
+                                    .block();
+            assertThat(name).isEqualTo("none");
+        }
+    }
+
+    @Test
+    public void testCancelCancelsSubscription() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        final AtomicInteger cancels = new AtomicInteger();
+        final AtomicInteger signals = new AtomicInteger();
+
+        Flux.never()
+            .doOnCancel(cancels::incrementAndGet)
+            .transform(CtxReactor.cancelWith(ctx))
+            .subscribe((v) -> signals.incrementAndGet(),
+                       (e) -> signals.incrementAndGet(),
+                       signals::incrementAndGet);
+        Mono.never()
+            .doOnCancel(cancels::incrementAndGet)
+            .transform(CtxReactor.cancelWith(ctx))
+            .subscribe();
+        assertThat(cancels.get()).isZero();
+
+        ctx.cancel();
+
+        assertThat(cancels.get()).isEqualTo(2);
+        assertThat(signals.get()).isZero();
+    }
+
+    @Test
+    public void testSubscribingToCancelledContextCancelsImmediately() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        ctx.cancel();
+        final AtomicInteger cancels = new AtomicInteger();
+
+        Flux.never()
+            .doOnCancel(cancels::incrementAndGet)
+            .transform(CtxReactor.cancelWith(ctx))
+            .subscribe();
+
+        assertThat(cancels.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testListenerRemovedOnTermination() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        final AtomicInteger cancels = new AtomicInteger();
+
+        Flux.just(1, 2)
+            .doOnCancel(cancels::incrementAndGet)
+            .transform(CtxReactor.cancelWith(ctx))
+            .blockLast();
+        Mono.just(1)
+            .doOnCancel(cancels::incrementAndGet)
+            .transform(CtxReactor.cancelWith(ctx))
+            .block();
+        ctx.cancel();
+
+        assertThat(cancels.get()).isZero();
+    }
+
+    private static String name() {
+        return Optional.ofNullable(Ctx.currentOrNull()).flatMap((c) -> c.get(NAME)).orElse("none");
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groupon.jtier.rx;
+
+import com.groupon.jtier.Ctx;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.BiFunction;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CtxRxJavaTest {
+
+    private static final Ctx.Key<String> NAME = Ctx.key("name", String.class);
+
+    @Before
+    public void setUp() throws Exception {
+        Ctx.cleanThread();
+        CtxRxJava.install();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CtxRxJava.uninstall();
+        Ctx.cleanThread();
+    }
+
+    @Test
+    public void testContextFollowsSchedulers() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        final Observable<String> names;
+        try (Ctx _i = ctx.attachToThread()) {
+            names = Observable.just(1)
+                              .subscribeOn(Schedulers.io())
+                              .map((i) -> name())
+                              .observeOn(Schedulers.computation())
+                              .map((first) -> first + "," + name())
+                              .delay(1, TimeUnit.MILLISECONDS)
+                              .map((second) -> second + "," + name());
+            assertThat(names.blockingFirst()).isEqualTo("Brian,Brian,Brian");
+        }
+    }
+
+    @Test
+    public void testNoContextWithoutAttachment() throws Exception {
+        final String name = Single.fromCallable(CtxRxJavaTest::name)
+                                  .subscribeOn(Schedulers.io())
+                                  .blockingGet();
+
+        assertThat(name).isEqualTo("none");
+    }
+
+    @Test
+    public void testUninstallRestoresHandler() throws Exception {
+        CtxRxJava.uninstall();
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        try (Ctx _i = ctx.attachToThread()) {
+            final String name = Single.fromCallable(CtxRxJavaTest::name)
+                                      .subscribeOn(Schedulers.io())
+                                      .blockingGet();
+            assertThat(name).isEqualTo("none");
+        }
+    }
+
+    @Test
+    public void testCancelDisposesSubscription() throws Exception {
+        final TestScheduler ticker = new TestScheduler();
+        final Ctx ctx = Ctx.empty();
+        final AtomicInteger counter = new AtomicInteger();
+        final AtomicBoolean terminated = new AtomicBoolean();
+
+        Observable.interval(10, TimeUnit.MILLISECONDS, ticker)
+                  .compose(CtxRxJava.cancelWith(ctx))
+                  .subscribe((i) -> counter.getAndIncrement(),
+                             (e) -> terminated.set(true),
+                             () -> terminated.set(true));
+
+        ticker.advanceTimeBy(20, TimeUnit.MILLISECONDS);
+        assertThat(counter.get()).isEqualTo(2);
+
+        ctx.cancel();
+        ticker.advanceTimeBy(20, TimeUnit.MILLISECONDS);
+
+        assertThat(counter.get()).isEqualTo(2);
+        assertThat(terminated.get()).isFalse();
+    }
+
+    @Test
+    public void testSubscribingToCancelledContextDisposesImmediately() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        ctx.cancel();
+        final AtomicInteger cancels = new AtomicInteger();
+
+        final io.reactivex.disposables.Disposable d = Flowable.never()
+                                                              .doOnCancel(cancels::incrementAndGet)
+                                                              .compose(CtxRxJava.cancelWith(ctx))
+                                                              .subscribe();
+
+        assertThat(cancels.get()).isEqualTo(1);
+        d.dispose();
+    }
+
+    @Test
+    public void testListenerRemovedOnTermination() throws Exception {
+        final Ctx ctx = Ctx.empty();
+        final AtomicInteger cancels = new AtomicInteger();
+
+        Flowable.just(1)
+                .doOnCancel(cancels::incrementAndGet)
+                .compose(CtxRxJava.cancelWith(ctx))
+                .blockingSubscribe();
+        Completable.complete()
+                   .doOnDispose(cancels::incrementAndGet)
+                   .compose(CtxRxJava.cancelWith(ctx))
+                   .blockingAwait();
+        ctx.cancel();
+
+        assertThat(cancels.get()).isZero();
+    }
+
+    @Test
+    public void testFunctionTypesAreNotProxied() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        final AtomicReference<String> seen = new AtomicReference<>();
+        final Function<String, String> function = (s) -> s + name();
+        final BiFunction<String, String, String> biFunction = (a, b) -> a + b + name();
+        final Consumer<String> consumer = (s) -> seen.set(s + name());
+        final Predicate<String> predicate = (s) -> s.equals(name());
+        final Action action = () -> seen.set(name());
+
+        final Function<String, String> f = CtxRxJava.propagateFunction(ctx, function);
+        final BiFunction<String, String, String> bf = CtxRxJava.propagateBiFunction(ctx, biFunction);
+        final Consumer<String> c = CtxRxJava.propagateConsumer(ctx, consumer);
+        final Predicate<String> p = CtxRxJava.propagatePredicate(ctx, predicate);
+        final Action a = CtxRxJava.propagateAction(ctx, action);
+
+        for (Object wrapped : new Object[]{f, bf, c, p, a}) {
+            assertThat(Proxy.isProxyClass(wrapped.getClass())).isFalse();
+        }
+        assertThat(f.apply("hi ")).isEqualTo("hi Brian");
+        assertThat(bf.apply("hi", " ")).isEqualTo("hi Brian");
+        assertThat(p.test("Brian")).isTrue();
+        c.accept("hi ");
+        assertThat(seen.get()).isEqualTo("hi Brian");
+        a.run();
+        assertThat(seen.get()).isEqualTo("Brian");
+        assertThat(Ctx.currentOrNull()).isNull();
+    }
+
+    @Test
+    public void testWrappedFunctionRestoresPreviousContext() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        final Ctx outer = Ctx.empty().with(NAME, "Eric");
+        final Function<String, String> f = CtxRxJava.propagateFunction(ctx, (s) -> s + name());
+
+        try (Ctx _i = outer.attachToThread()) {
+            assertThat(f.apply("hi ")).isEqualTo("hi Brian");
+            assertThat(Ctx.currentOrNull()).isSameAs(outer);
+        }
+    }
+
+    @Test
+    public void testWrapsImplicitlyTypedLambdas() throws Exception {
+        final Ctx ctx = Ctx.empty().with(NAME, "Brian");
+        final AtomicReference<String> seen = new AtomicReference<>();
+
+        final String names = Observable.just("hi ")
+                                       .filter(CtxRxJava.propagatePredicate(ctx, (s) -> name().equals("Brian")))
+                                       .map(CtxRxJava.propagateFunction(ctx, (s) -> s + name()))
+                                       .doOnNext(CtxRxJava.propagateConsumer(ctx, (s) -> seen.set(name())))
+                                       .doOnComplete(CtxRxJava.propagateAction(ctx, () -> assertThat(name()).isEqualTo("Brian")))
+                                       .reduce("", CtxRxJava.propagateBiFunction(ctx, (a, b) -> a + b + name()))
+                                       .blockingGet();
+
+        assertThat(names).isEqualTo("hi BrianBrian");
+        assertThat(seen.get()).isEqualTo("Brian");
+        assertThat(Ctx.currentOrNull()).isNull();
+    }
+
+    private static String name() {
+        return Optional.ofNullable(Ctx.currentOrNull()).flatMap((c) -> c.get(NAME)).orElse("none");
+    }
+}